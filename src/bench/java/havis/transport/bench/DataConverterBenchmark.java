@@ -0,0 +1,137 @@
+package havis.transport.bench;
+
+import havis.transport.DataConverter;
+import havis.transport.DataWriter;
+import havis.transport.TransportException;
+import havis.transport.ValidationException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of reports to flat data into a {@link DataWriter} which discards
+ * all data, with and without support for typed rows. The converter implementation can be chosen with
+ * <code>-p converter=&lt;class name&gt;</code>, it is initialized with the
+ * expression passed with <code>-p expression=&lt;expression&gt;</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataConverterBenchmark {
+
+	/**
+	 * Data writer discarding all data
+	 */
+	static class NoOpDataWriter implements DataWriter {
+
+		private final Blackhole blackhole;
+		private final boolean rows;
+
+		NoOpDataWriter(Blackhole blackhole, boolean rows) {
+			this.blackhole = blackhole;
+			this.rows = rows;
+		}
+
+		@Override
+		public boolean supportsRows() {
+			return this.rows;
+		}
+
+		@Override
+		public void beginRow() throws TransportException {
+		}
+
+		@Override
+		public void writeNull(int column) throws TransportException {
+		}
+
+		@Override
+		public void writeLong(int column, long value) throws TransportException {
+			this.blackhole.consume(value);
+		}
+
+		@Override
+		public void writeDouble(int column, double value) throws TransportException {
+			this.blackhole.consume(value);
+		}
+
+		@Override
+		public void writeBoolean(int column, boolean value) throws TransportException {
+			this.blackhole.consume(value);
+		}
+
+		@Override
+		public void writeString(int column, CharSequence value) throws TransportException {
+			this.blackhole.consume(value);
+		}
+
+		@Override
+		public void writeObject(int column, Object value) throws TransportException {
+			this.blackhole.consume(value);
+		}
+
+		@Override
+		public void endRow() throws TransportException {
+		}
+
+		@Override
+		public void prepare(List<String> fields) throws TransportException {
+			this.blackhole.consume(fields);
+		}
+
+		@Override
+		public void write(List<Object> values) throws TransportException {
+			this.blackhole.consume(values);
+		}
+
+		@Override
+		public void commit() throws TransportException {
+		}
+	}
+
+	@Param({ "havis.transport.bench.ReportDataConverter" })
+	public String converter;
+
+	@Param({ "tags" })
+	public String expression;
+
+	@Param({ "10", "1000" })
+	public int tags;
+
+	private DataConverter dataConverter;
+	private Report report;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException, ValidationException {
+		this.dataConverter = (DataConverter) Class.forName(this.converter).newInstance();
+		this.dataConverter.init(Collections.singletonMap(havis.transport.Messenger.DATA_CONVERTER_EXPRESSION_PROPERTY, this.expression));
+		this.report = Report.create(this.tags);
+	}
+
+	@Benchmark
+	public void convert(Blackhole blackhole) throws TransportException {
+		this.dataConverter.convert(this.report, new NoOpDataWriter(blackhole, false));
+	}
+
+	@Benchmark
+	public void convertRows(Blackhole blackhole) throws TransportException {
+		this.dataConverter.convert(this.report, new NoOpDataWriter(blackhole, true));
+	}
+}
@@ -0,0 +1,87 @@
+package havis.transport.bench;
+
+import havis.transport.FutureSendTask;
+import havis.transport.Subscriber;
+import havis.transport.Subscription;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fan-out of one message to all subscribers as done by
+ * {@link havis.transport.SubscriberManager#send(Object)}: one
+ * {@link FutureSendTask} per subscription is created, executed and awaited.
+ * The transport itself does nothing, so the result is the overhead of the
+ * fan-out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int subscribers;
+
+	private List<Subscription> subscriptions;
+	private ExecutorService executor;
+	private Report message;
+
+	@Setup
+	public void setup() {
+		this.subscriptions = new ArrayList<>();
+		for (int i = 0; i < this.subscribers; i++) {
+			Subscriber subscriber = new Subscriber(true, "tcp://localhost:" + (10000 + i));
+			subscriber.setId(Integer.toString(i));
+			this.subscriptions.add(subscriber);
+		}
+		this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		this.message = Report.create(10);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.executor.shutdownNow();
+	}
+
+	@Benchmark
+	public Map<Subscription, FutureSendTask> send() {
+		Map<Subscription, FutureSendTask> result = new LinkedHashMap<>();
+		for (Subscription subscription : this.subscriptions) {
+			final Object message = this.message;
+			FutureSendTask task = new FutureSendTask(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (message == null)
+						throw new IllegalStateException();
+					return null;
+				}
+			}, null);
+			this.executor.execute(task);
+			result.put(subscription, task);
+		}
+		FutureSendTask.allOf(result.values()).join();
+		return result;
+	}
+}
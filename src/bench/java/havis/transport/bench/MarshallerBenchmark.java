@@ -0,0 +1,175 @@
+package havis.transport.bench;
+
+import havis.transport.CodecRegistry;
+import havis.transport.DelegatingMarshaller;
+import havis.transport.Marshaller;
+import havis.transport.Messenger;
+import havis.transport.TransportException;
+import havis.transport.ValidationException;
+import havis.transport.XmlMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Marshalling and unmarshalling of reports as XML (text/xml, also through the
+ * pooled {@link XmlMarshaller} and streamed without buffering the document),
+ * in the compact binary encoding (application/vnd.havis.compact) and as
+ * binary data (application/octet-stream), and the overhead of the
+ * {@link DelegatingMarshaller}. The JAXB reference implementation needs
+ * access to java.lang, which is opened in the forked VM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class MarshallerBenchmark {
+
+	/**
+	 * Marshaller for binary data, as used for
+	 * {@link havis.transport.Messenger#BINARY_MIMETYPE}
+	 */
+	static class BinaryMarshaller implements Marshaller<byte[]> {
+
+		@Override
+		public byte[] unmarshal(InputStream source) throws TransportException {
+			try {
+				ByteArrayOutputStream stream = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int count;
+				while ((count = source.read(buffer)) > -1)
+					stream.write(buffer, 0, count);
+				return stream.toByteArray();
+			} catch (IOException e) {
+				throw new TransportException("Failed to read", e);
+			}
+		}
+
+		@Override
+		public void marshal(byte[] message, OutputStream target) throws TransportException {
+			try {
+				target.write(message);
+			} catch (IOException e) {
+				throw new TransportException("Failed to write", e);
+			}
+		}
+	}
+
+	@Param({ "10", "1000" })
+	public int tags;
+
+	private Report report;
+	private byte[] xml;
+	private javax.xml.bind.Marshaller marshaller;
+	private javax.xml.bind.Marshaller delegating;
+	private Unmarshaller unmarshaller;
+	private BinaryMarshaller binary;
+	private Marshaller<Report> pooled;
+	private OutputStream sink;
+	private Marshaller<Report> compact;
+	private byte[] compactData;
+
+	@Setup
+	public void setup() throws JAXBException, ValidationException, TransportException {
+		JAXBContext context = JAXBContext.newInstance(Report.class);
+		this.report = Report.create(this.tags);
+		this.marshaller = context.createMarshaller();
+		this.delegating = new DelegatingMarshaller(context.createMarshaller());
+		this.unmarshaller = context.createUnmarshaller();
+		this.binary = new BinaryMarshaller();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		this.marshaller.marshal(this.report, stream);
+		this.xml = stream.toByteArray();
+		this.pooled = CodecRegistry.getDefault().get(Messenger.DEFAULT_MIMETYPE, Report.class);
+		this.sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		this.compact = CodecRegistry.getDefault().get(Messenger.COMPACT_MIMETYPE, Report.class);
+		stream = new ByteArrayOutputStream();
+		this.compact.marshal(this.report, stream);
+		this.compactData = stream.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] marshalXml() throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(this.xml.length);
+		this.marshaller.marshal(this.report, stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] marshalXmlDelegating() throws JAXBException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(this.xml.length);
+		this.delegating.marshal(this.report, stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] marshalXmlPooled() throws TransportException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(this.xml.length);
+		this.pooled.marshal(this.report, stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public void streamXml() throws TransportException {
+		((XmlMarshaller<Report>) this.pooled).stream(this.report, this.sink);
+	}
+
+	@Benchmark
+	public Object unmarshalXml() throws JAXBException {
+		return this.unmarshaller.unmarshal(new ByteArrayInputStream(this.xml));
+	}
+
+	@Benchmark
+	public byte[] marshalBinary() throws TransportException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(this.xml.length);
+		this.binary.marshal(this.xml, stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] unmarshalBinary() throws TransportException {
+		return this.binary.unmarshal(new ByteArrayInputStream(this.xml));
+	}
+
+	@Benchmark
+	public byte[] marshalCompact() throws TransportException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(this.compactData.length);
+		this.compact.marshal(this.report, stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public Report unmarshalCompact() throws TransportException {
+		return this.compact.unmarshal(new ByteArrayInputStream(this.compactData));
+	}
+}
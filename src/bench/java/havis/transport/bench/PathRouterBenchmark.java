@@ -0,0 +1,93 @@
+package havis.transport.bench;
+
+import havis.transport.Callback;
+import havis.transport.PathRouter;
+import havis.transport.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dispatch of an arrived message to the callbacks of matching paths, with
+ * one exact path per device and a few wildcard paths, as looked up by the
+ * {@link PathRouter} trie and by comparing the path with each registered
+ * path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathRouterBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int devices;
+
+	private PathRouter router;
+	private List<String[]> paths;
+	private List<Callback> callbacks;
+	private String path;
+
+	@Setup
+	public void setup() throws ValidationException {
+		this.router = new PathRouter();
+		this.paths = new ArrayList<>();
+		this.callbacks = new ArrayList<>();
+		List<String> all = new ArrayList<>();
+		for (int i = 0; i < this.devices; i++)
+			all.add("devices/" + i + "/tags");
+		all.add("devices/+/tags");
+		all.add("devices/#");
+		all.add("alarms/#");
+		for (String path : all) {
+			Callback callback = new Callback() {
+				@Override
+				public void arrived(String path, Object message) {
+				}
+			};
+			this.router.add(path, callback);
+			this.paths.add(path.split("/"));
+			this.callbacks.add(callback);
+		}
+		this.path = "devices/" + (this.devices / 2) + "/tags";
+	}
+
+	@Benchmark
+	public List<Callback> trie() {
+		return this.router.match(this.path);
+	}
+
+	@Benchmark
+	public List<Callback> linear() {
+		List<Callback> result = new ArrayList<>();
+		String[] levels = this.path.split("/");
+		for (int i = 0; i < this.paths.size(); i++)
+			if (matches(this.paths.get(i), levels))
+				result.add(this.callbacks.get(i));
+		return result;
+	}
+
+	private static boolean matches(String[] filter, String[] levels) {
+		for (int i = 0; i < filter.length; i++) {
+			if (filter[i].equals("#"))
+				return true;
+			if (i >= levels.length || !filter[i].equals("+") && !filter[i].equals(levels[i]))
+				return false;
+		}
+		return filter.length == levels.length;
+	}
+}
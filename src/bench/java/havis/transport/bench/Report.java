@@ -0,0 +1,47 @@
+package havis.transport.bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Sample message resembling an inventory report
+ */
+@XmlRootElement
+public class Report {
+
+	public static class Tag {
+		public String epc;
+		public int antenna;
+		public double rssi;
+		public Date time;
+	}
+
+	public String reader;
+	public Date time;
+	public List<Tag> tags = new ArrayList<>();
+
+	/**
+	 * Creates a report with the specified number of tags
+	 * 
+	 * @param size
+	 *            the number of tags
+	 * @return the report
+	 */
+	public static Report create(int size) {
+		Report report = new Report();
+		report.reader = "reader";
+		report.time = new Date(0);
+		for (int i = 0; i < size; i++) {
+			Tag tag = new Tag();
+			tag.epc = String.format("3034257BF7194E4000%06X", Integer.valueOf(i));
+			tag.antenna = 1 + i % 4;
+			tag.rssi = -50.5 - i % 20;
+			tag.time = new Date(i);
+			report.tags.add(tag);
+		}
+		return report;
+	}
+}
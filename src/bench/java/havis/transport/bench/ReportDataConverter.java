@@ -0,0 +1,41 @@
+package havis.transport.bench;
+
+import havis.transport.DataConverter;
+import havis.transport.DataWriter;
+import havis.transport.RowDataWriter;
+import havis.transport.TransportException;
+import havis.transport.ValidationException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference converter writing one row per tag of a {@link Report}, used if
+ * no other converter is chosen
+ */
+public class ReportDataConverter implements DataConverter {
+
+	private final static List<String> FIELDS = Arrays.asList("reader", "epc", "antenna", "rssi", "time");
+
+	@Override
+	public void init(Map<String, String> properties) throws ValidationException {
+	}
+
+	@Override
+	public void convert(Object message, DataWriter writer) throws TransportException {
+		Report report = (Report) message;
+		DataWriter rows = RowDataWriter.of(writer);
+		rows.prepare(FIELDS);
+		for (Report.Tag tag : report.tags) {
+			rows.beginRow();
+			rows.writeString(0, report.reader);
+			rows.writeString(1, tag.epc);
+			rows.writeLong(2, tag.antenna);
+			rows.writeDouble(3, tag.rssi);
+			rows.writeObject(4, tag.time);
+			rows.endRow();
+		}
+		rows.commit();
+	}
+}
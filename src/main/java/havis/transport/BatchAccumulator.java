@@ -0,0 +1,175 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates elements to batches which are handed over when either the
+ * maximum batch size is reached or the linger time of the first element in
+ * the batch has elapsed. Used by messengers to implement
+ * {@link Messenger#BATCH_MAX_SIZE_PROPERTY} and
+ * {@link Messenger#BATCH_LINGER_MS_PROPERTY}.
+ * 
+ * @param <E>
+ *            type of the accumulated elements
+ */
+public class BatchAccumulator<E> {
+
+	/**
+	 * Handler for complete batches
+	 * 
+	 * @param <E>
+	 *            type of the accumulated elements
+	 */
+	public interface Handler<E> {
+		/**
+		 * Called with a complete batch. The handler is called while the
+		 * accumulator is locked to keep the order of the batches, so it should
+		 * hand over the batch quickly, e.g. to an executor.
+		 * 
+		 * @param batch
+		 *            the batch, never empty
+		 */
+		void flush(List<E> batch);
+	}
+
+	private final int maxSize;
+	private final long lingerMs;
+	private final ScheduledExecutorService scheduler;
+	private final Handler<E> handler;
+
+	private List<E> batch;
+	private ScheduledFuture<?> linger;
+
+	/**
+	 * Creates a new batch accumulator
+	 * 
+	 * @param maxSize
+	 *            the maximum number of elements in a batch
+	 * @param lingerMs
+	 *            the time in milliseconds to wait for further elements before
+	 *            an incomplete batch is flushed, 0 to only flush complete
+	 *            batches or on {@link #flush()}
+	 * @param scheduler
+	 *            the scheduler to run the linger timer on, may be null if
+	 *            lingerMs is 0
+	 * @param handler
+	 *            the handler for complete batches
+	 */
+	public BatchAccumulator(int maxSize, long lingerMs, ScheduledExecutorService scheduler, Handler<E> handler) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		if (lingerMs < 0)
+			throw new IllegalArgumentException("lingerMs must not be negative");
+		if (lingerMs > 0 && scheduler == null)
+			throw new IllegalArgumentException("scheduler must not be null if lingerMs is set");
+		if (handler == null)
+			throw new IllegalArgumentException("handler must not be null");
+		this.maxSize = maxSize;
+		this.lingerMs = lingerMs;
+		this.scheduler = scheduler;
+		this.handler = handler;
+	}
+
+	/**
+	 * Creates a new batch accumulator from the properties
+	 * {@link Messenger#BATCH_MAX_SIZE_PROPERTY} and
+	 * {@link Messenger#BATCH_LINGER_MS_PROPERTY}
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @param scheduler
+	 *            the scheduler to run the linger timer on
+	 * @param handler
+	 *            the handler for complete batches
+	 * @return the batch accumulator or null if batching is not enabled
+	 * @throws ValidationException
+	 *             if the properties are not valid
+	 */
+	public static <E> BatchAccumulator<E> create(Map<String, String> properties, ScheduledExecutorService scheduler, Handler<E> handler)
+			throws ValidationException {
+		int maxSize = PropertyValues.getInt(properties, Messenger.BATCH_MAX_SIZE_PROPERTY, 1);
+		int lingerMs = PropertyValues.getInt(properties, Messenger.BATCH_LINGER_MS_PROPERTY, 0);
+		if (maxSize < 2)
+			return null;
+		if (lingerMs < 0)
+			throw PropertyValues.invalid(Messenger.BATCH_LINGER_MS_PROPERTY, Integer.valueOf(lingerMs));
+		return new BatchAccumulator<E>(maxSize, lingerMs, scheduler, handler);
+	}
+
+	/**
+	 * @return the maximum number of elements in a batch
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * @return the linger time in milliseconds
+	 */
+	public long getLingerMs() {
+		return this.lingerMs;
+	}
+
+	/**
+	 * Adds an element, flushes the batch if it is complete
+	 * 
+	 * @param element
+	 *            the element to add
+	 */
+	public synchronized void add(E element) {
+		if (this.batch == null)
+			this.batch = new ArrayList<>(this.maxSize);
+		this.batch.add(element);
+		if (this.batch.size() >= this.maxSize) {
+			flush();
+		} else if (this.batch.size() == 1 && this.lingerMs > 0) {
+			final List<E> batch = this.batch;
+			this.linger = this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					linger(batch);
+				}
+			}, this.lingerMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Flushes the batch the linger timer was started for, if it is still the
+	 * current batch. The timer may fire after the batch has been flushed and
+	 * a new batch has been started, which must linger on its own timer.
+	 * 
+	 * @param batch
+	 *            the batch of the timer
+	 */
+	private synchronized void linger(List<E> batch) {
+		if (this.batch == batch)
+			flush();
+	}
+
+	/**
+	 * Flushes the current batch, if any
+	 */
+	public synchronized void flush() {
+		if (this.linger != null) {
+			this.linger.cancel(false);
+			this.linger = null;
+		}
+		if (this.batch != null && !this.batch.isEmpty()) {
+			List<E> batch = this.batch;
+			this.batch = null;
+			this.handler.flush(batch);
+		}
+	}
+
+	/**
+	 * @return the number of elements waiting to be flushed
+	 */
+	public synchronized int size() {
+		return this.batch != null ? this.batch.size() : 0;
+	}
+}
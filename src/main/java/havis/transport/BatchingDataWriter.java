@@ -0,0 +1,281 @@
+package havis.transport;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Data writer gathering rows of multiple messages into batches, used if
+ * {@link Messenger#JDBC_BATCH_SIZE_PROPERTY} is set. Rows are added to the
+ * current batch by {@link #write(List)}, the batch is executed and committed
+ * when it reaches the batch size, or by {@link #commit()} when the commit
+ * interval has elapsed since the first row of the batch was written. To
+ * commit rows when no further messages arrive, {@link #flush(boolean)} should
+ * be called periodically.
+ * 
+ * As {@link #commit()} returns before held back rows are committed, the
+ * outcome of the rows of a message is reported by the future returned from
+ * {@link #commitAsync()}. A failed batch is rolled back and discarded, the
+ * futures of its rows are completed exceptionally, so the messages can be
+ * sent again without writing their rows twice. A batch therefore never holds
+ * more than the batch size of rows and is never retried by the writer.
+ * 
+ * Writers providing the statement of the batch by {@link #getStatement()}
+ * support typed rows, which bind the values directly to the statement
+ * without boxing them or allocating a list per row.
+ */
+public abstract class BatchingDataWriter implements DataWriter {
+
+	private final int batchSize;
+	private final long commitInterval;
+
+	private int rows;
+	private long firstRow;
+	private CompletableFuture<Void> batch = new CompletableFuture<>();
+
+	// the statement of the current typed row and its parameters
+	private PreparedStatement statement;
+	private boolean[] written = new boolean[0];
+
+	/**
+	 * Creates a new batching data writer
+	 * 
+	 * @param batchSize
+	 *            the number of rows to execute and commit together
+	 * @param commitInterval
+	 *            the maximum time in milliseconds rows are held back
+	 */
+	protected BatchingDataWriter(int batchSize, long commitInterval) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.batchSize = batchSize;
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Add a row to the current batch, e.g. using
+	 * PreparedStatement.addBatch()
+	 * 
+	 * @param values
+	 *            the values to write
+	 * @throws TransportException
+	 *             if adding fails
+	 */
+	protected abstract void addBatch(List<Object> values) throws TransportException;
+
+	/**
+	 * Execute and commit the current batch, e.g. using
+	 * PreparedStatement.executeBatch() and Connection.commit(). If executing
+	 * or committing fails, the transaction must be rolled back and the rows of
+	 * the batch discarded, e.g. using Connection.rollback() and
+	 * PreparedStatement.clearBatch().
+	 * 
+	 * @throws TransportException
+	 *             if executing or committing fails
+	 */
+	protected abstract void executeBatch() throws TransportException;
+
+	/**
+	 * Get the statement the typed row methods bind the values of a row to,
+	 * the row is added by PreparedStatement.addBatch() in {@link #endRow()}.
+	 * Rows written by {@link #write(List)} are passed to
+	 * {@link #addBatch(List)} instead.
+	 * 
+	 * @return the statement of the current batch or null if typed rows are
+	 *         not supported, which is the default
+	 */
+	protected PreparedStatement getStatement() {
+		return null;
+	}
+
+	/**
+	 * Add a row to the current batch, executes and commits the batch if it
+	 * reached the batch size
+	 * 
+	 * @throws TransportException
+	 *             if adding fails or the batch including the row failed
+	 */
+	@Override
+	public synchronized void write(List<Object> values) throws TransportException {
+		addBatch(values);
+		added();
+	}
+
+	private void added() throws TransportException {
+		if (this.rows++ == 0)
+			this.firstRow = System.currentTimeMillis();
+		if (this.rows >= this.batchSize)
+			flush(true);
+	}
+
+	@Override
+	public boolean supportsRows() {
+		return getStatement() != null;
+	}
+
+	@Override
+	public synchronized void beginRow() throws TransportException {
+		PreparedStatement statement = getStatement();
+		if (statement == null)
+			throw new TransportException("Typed rows are not supported");
+		try {
+			if (statement != this.statement) {
+				this.written = new boolean[statement.getParameterMetaData().getParameterCount()];
+				this.statement = statement;
+			}
+		} catch (SQLException e) {
+			throw new TransportException("Failed to begin row: " + e.getMessage(), e);
+		}
+		Arrays.fill(this.written, false);
+	}
+
+	private PreparedStatement bind(int column) throws TransportException {
+		if (this.statement == null)
+			throw new TransportException("No row has been begun");
+		if (column < 0 || column >= this.written.length)
+			throw new TransportException("Invalid column " + column);
+		this.written[column] = true;
+		return this.statement;
+	}
+
+	@Override
+	public synchronized void writeNull(int column) throws TransportException {
+		try {
+			bind(column).setNull(column + 1, Types.NULL);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void writeLong(int column, long value) throws TransportException {
+		try {
+			bind(column).setLong(column + 1, value);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void writeDouble(int column, double value) throws TransportException {
+		try {
+			bind(column).setDouble(column + 1, value);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void writeBoolean(int column, boolean value) throws TransportException {
+		try {
+			bind(column).setBoolean(column + 1, value);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void writeString(int column, CharSequence value) throws TransportException {
+		try {
+			bind(column).setString(column + 1, value != null ? value.toString() : null);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void writeObject(int column, Object value) throws TransportException {
+		try {
+			bind(column).setObject(column + 1, value);
+		} catch (SQLException e) {
+			throw new TransportException("Failed to write column " + column + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Bind null to the columns which have not been written, add the row to
+	 * the batch and execute and commit the batch if it reached the batch size
+	 */
+	@Override
+	public synchronized void endRow() throws TransportException {
+		if (this.statement == null)
+			throw new TransportException("No row has been begun");
+		try {
+			for (int i = 0; i < this.written.length; i++)
+				if (!this.written[i])
+					this.statement.setNull(i + 1, Types.NULL);
+			this.statement.addBatch();
+		} catch (SQLException e) {
+			throw new TransportException("Failed to add row: " + e.getMessage(), e);
+		}
+		added();
+	}
+
+	/**
+	 * Commits the current batch if the commit interval has elapsed, otherwise
+	 * the rows are held back for the next batch. Use {@link #commitAsync()} to
+	 * learn whether held back rows have been committed.
+	 * 
+	 * @throws TransportException
+	 *             if the batch was committed and failed
+	 */
+	@Override
+	public synchronized void commit() throws TransportException {
+		flush(false);
+	}
+
+	/**
+	 * Commits the current batch if the commit interval has elapsed, see
+	 * {@link #commit()}
+	 * 
+	 * @return the future completed when the rows written so far have been
+	 *         committed, or completed exceptionally with the
+	 *         {@link TransportException} of their batch
+	 */
+	public synchronized CompletableFuture<Void> commitAsync() {
+		CompletableFuture<Void> batch = this.batch;
+		try {
+			flush(false);
+		} catch (TransportException e) {
+			// reported by the future
+		}
+		return batch;
+	}
+
+	/**
+	 * Execute and commit the current batch
+	 * 
+	 * @param force
+	 *            true to commit the batch regardless of its size and age, e.g.
+	 *            before the fields are changed or on dispose, false to only
+	 *            commit if the commit interval has elapsed
+	 * @throws TransportException
+	 *             if executing or committing fails
+	 */
+	public synchronized void flush(boolean force) throws TransportException {
+		if (this.rows > 0 && (force || System.currentTimeMillis() - this.firstRow >= this.commitInterval)) {
+			CompletableFuture<Void> batch = this.batch;
+			this.batch = new CompletableFuture<>();
+			try {
+				executeBatch();
+			} catch (TransportException | RuntimeException e) {
+				// the batch is discarded, its messages learn about the failure
+				this.rows = 0;
+				batch.completeExceptionally(e);
+				throw e;
+			}
+			this.rows = 0;
+			batch.complete(null);
+		}
+	}
+
+	/**
+	 * @return the number of rows which have not been committed yet
+	 */
+	public synchronized int getPendingRows() {
+		return this.rows;
+	}
+}
@@ -0,0 +1,72 @@
+package havis.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct {@link ByteBuffer}s of equal size. Direct buffers can be
+ * written to channels without being copied, but are expensive to allocate,
+ * so they are reused.
+ */
+public class ByteBufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Creates a new buffer pool
+	 * 
+	 * @param bufferSize
+	 *            the capacity of each buffer in bytes
+	 * @param maxPooled
+	 *            the maximum number of buffers kept in the pool, further
+	 *            released buffers are left to the garbage collector
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled) {
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("bufferSize must be greater than 0");
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return the capacity of each buffer in bytes
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Acquire a cleared buffer from the pool, allocates a new buffer if the
+	 * pool is empty
+	 * 
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = this.buffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		this.pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Release a buffer to the pool, the buffer must not be used afterwards
+	 * 
+	 * @param buffer
+	 *            the buffer acquired from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() != this.bufferSize || !buffer.isDirect())
+			throw new IllegalArgumentException("Buffer was not acquired from this pool");
+		if (this.pooled.incrementAndGet() <= this.maxPooled)
+			this.buffers.offer(buffer);
+		else
+			this.pooled.decrementAndGet();
+	}
+}
@@ -0,0 +1,86 @@
+package havis.transport;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Marshaller writing into buffers and channels instead of streams, to hand
+ * the marshalled message to NIO channels without intermediate copies. The
+ * default implementations adapt the stream based methods, implementations
+ * should override them to write into the buffers directly.
+ */
+public interface ChannelMarshaller<T> extends Marshaller<T> {
+
+	/**
+	 * marshal the message into pooled direct buffers
+	 * 
+	 * @param message
+	 *            The message
+	 * @param pool
+	 *            the pool to acquire the buffers from
+	 * @return the stream containing the buffers, which must be closed to
+	 *         return the buffers to the pool
+	 * @throws TransportException
+	 *             if marshalling fails
+	 */
+	default PooledByteBufferOutputStream marshal(T message, ByteBufferPool pool) throws TransportException {
+		PooledByteBufferOutputStream stream = new PooledByteBufferOutputStream(pool);
+		try {
+			marshal(message, stream);
+		} catch (TransportException e) {
+			stream.close();
+			throw e;
+		}
+		return stream;
+	}
+
+	/**
+	 * marshal the message to the specified {@link WritableByteChannel}
+	 * 
+	 * @param message
+	 *            The message
+	 * @param target
+	 *            the {@link WritableByteChannel} to marshal to
+	 * @throws TransportException
+	 *             if marshalling fails
+	 */
+	default void marshal(T message, WritableByteChannel target) throws TransportException {
+		marshal(message, Channels.newOutputStream(target));
+	}
+
+	/**
+	 * marshal the message to the specified {@link WritableByteChannel} using
+	 * pooled direct buffers
+	 * 
+	 * @param message
+	 *            The message
+	 * @param target
+	 *            the {@link WritableByteChannel} to marshal to
+	 * @param pool
+	 *            the pool to acquire the buffers from
+	 * @throws TransportException
+	 *             if marshalling or writing fails
+	 */
+	default void marshal(T message, WritableByteChannel target, ByteBufferPool pool) throws TransportException {
+		try (PooledByteBufferOutputStream stream = marshal(message, pool)) {
+			stream.writeTo(target);
+		} catch (IOException e) {
+			throw new TransportException("Failed to write message", e);
+		}
+	}
+
+	/**
+	 * unmarshal the message from the specified {@link ReadableByteChannel}
+	 * 
+	 * @param source
+	 *            the {@link ReadableByteChannel} to unmarshal from
+	 * @return The message
+	 * @throws TransportException
+	 *             if unmarshalling fails
+	 */
+	default T unmarshal(ReadableByteChannel source) throws TransportException {
+		return unmarshal(Channels.newInputStream(source));
+	}
+}
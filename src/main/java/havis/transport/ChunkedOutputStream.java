@@ -0,0 +1,125 @@
+package havis.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream writing a HTTP/1.1 request body with chunked transfer
+ * encoding, used to stream messages of unknown length onto pooled
+ * connections (see {@link Messenger#STREAMING_PROPERTY}). The data is
+ * buffered up to the chunk size, so memory use does not depend on the size
+ * of the message. Closing the stream writes the last chunk, but leaves the
+ * underlying stream open for reuse of the connection.
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+
+	/**
+	 * Default chunk size in bytes
+	 */
+	public final static int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final static byte[] CRLF = { '\r', '\n' };
+	private final static byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+	private final byte[] buffer;
+	private int count;
+	private boolean closed;
+
+	/**
+	 * Creates a new output stream with the default chunk size
+	 * 
+	 * @param out
+	 *            the underlying stream
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new output stream
+	 * 
+	 * @param out
+	 *            the underlying stream
+	 * @param chunkSize
+	 *            the maximum size of a chunk in bytes
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		super(out);
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be greater than 0");
+		this.buffer = new byte[chunkSize];
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed)
+			throw new IOException("Stream is closed");
+	}
+
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+		this.out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+		this.out.write(CRLF);
+		this.out.write(b, off, len);
+		this.out.write(CRLF);
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.count > 0) {
+			writeChunk(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (this.count == this.buffer.length)
+			flushBuffer();
+		this.buffer[this.count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (len >= this.buffer.length) {
+			// write large arrays directly without copying
+			flushBuffer();
+			while (len > 0) {
+				int size = Math.min(len, this.buffer.length);
+				writeChunk(b, off, size);
+				off += size;
+				len -= size;
+			}
+			return;
+		}
+		if (len > this.buffer.length - this.count)
+			flushBuffer();
+		System.arraycopy(b, off, this.buffer, this.count, len);
+		this.count += len;
+	}
+
+	/**
+	 * Writes the buffered data as a chunk and flushes the underlying stream
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushBuffer();
+		this.out.flush();
+	}
+
+	/**
+	 * Writes the buffered data and the last chunk, the underlying stream is
+	 * flushed but not closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.closed) {
+			flushBuffer();
+			this.out.write(LAST_CHUNK);
+			this.out.flush();
+			this.closed = true;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package havis.transport;
+
+import java.util.Map;
+
+/**
+ * Circuit breaker for the endpoint of a messenger, set up with
+ * {@link Messenger#CIRCUIT_BREAKER_FAILURE_THRESHOLD_PROPERTY}. After the
+ * given number of consecutive failures the circuit opens and sends fail fast
+ * with a {@link CircuitOpenException} (or go to the resend queue) instead of
+ * waiting for the transport timeout. When the backoff time has elapsed, a
+ * single probe send is allowed. If it succeeds, the circuit closes, otherwise
+ * it opens again with twice the backoff time, up to the maximum backoff.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * State of the circuit
+	 */
+	public enum State {
+		/**
+		 * Sends are allowed
+		 */
+		CLOSED,
+		/**
+		 * Sends fail fast until the backoff time has elapsed
+		 */
+		OPEN,
+		/**
+		 * A single probe send is in progress, other sends fail fast. If the
+		 * result of the probe is not reported within the probe timeout, e.g.
+		 * because it was cancelled, another probe is allowed.
+		 */
+		HALF_OPEN
+	}
+
+	private final static long DEFAULT_INITIAL_BACKOFF = 1000;
+	private final static long DEFAULT_MAX_BACKOFF = 60000;
+	private final static long DEFAULT_PROBE_TIMEOUT = 60000;
+	private final static String[] TIMEOUT_PROPERTIES = { Messenger.TCP_TIMEOUT_PROPERTY, Messenger.HTTP_TIMEOUT_PROPERTY,
+			Messenger.MQTT_TIMEOUT_PROPERTY, Messenger.AZURE_TIMEOUT_PROPERTY };
+
+	private final int failureThreshold;
+	private final long initialBackoff;
+	private final long maxBackoff;
+	private final long probeTimeout;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long backoff;
+	private long retryAt;
+
+	/**
+	 * Creates a new circuit breaker
+	 * 
+	 * @param failureThreshold
+	 *            the number of consecutive failures to open the circuit
+	 * @param initialBackoff
+	 *            the time in milliseconds until the first probe
+	 * @param maxBackoff
+	 *            the maximum time in milliseconds between probes
+	 */
+	public CircuitBreaker(int failureThreshold, long initialBackoff, long maxBackoff) {
+		this(failureThreshold, initialBackoff, maxBackoff, DEFAULT_PROBE_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new circuit breaker
+	 * 
+	 * @param failureThreshold
+	 *            the number of consecutive failures to open the circuit
+	 * @param initialBackoff
+	 *            the time in milliseconds until the first probe
+	 * @param maxBackoff
+	 *            the maximum time in milliseconds between probes
+	 * @param probeTimeout
+	 *            the time in milliseconds after which another probe is allowed
+	 *            if the result of a probe has not been reported, should not be
+	 *            less than the timeout of the transport
+	 */
+	public CircuitBreaker(int failureThreshold, long initialBackoff, long maxBackoff, long probeTimeout) {
+		if (failureThreshold < 1)
+			throw new IllegalArgumentException("failureThreshold must be greater than 0");
+		if (initialBackoff < 1 || maxBackoff < initialBackoff)
+			throw new IllegalArgumentException("initialBackoff must be greater than 0 and not greater than maxBackoff");
+		if (probeTimeout < 1)
+			throw new IllegalArgumentException("probeTimeout must be greater than 0");
+		this.failureThreshold = failureThreshold;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.probeTimeout = probeTimeout;
+	}
+
+	/**
+	 * Creates a new circuit breaker from the properties of a messenger
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @return the circuit breaker or null if
+	 *         {@link Messenger#CIRCUIT_BREAKER_FAILURE_THRESHOLD_PROPERTY} is
+	 *         not set
+	 * @throws ValidationException
+	 *             if the properties are not valid
+	 */
+	public static CircuitBreaker create(Map<String, String> properties) throws ValidationException {
+		long threshold = PropertyValues.getLong(properties, Messenger.CIRCUIT_BREAKER_FAILURE_THRESHOLD_PROPERTY, 0);
+		if (threshold == 0)
+			return null;
+		long initialBackoff = PropertyValues.getLong(properties, Messenger.CIRCUIT_BREAKER_INITIAL_BACKOFF_PROPERTY, DEFAULT_INITIAL_BACKOFF);
+		long maxBackoff = PropertyValues.getLong(properties, Messenger.CIRCUIT_BREAKER_MAX_BACKOFF_PROPERTY, Math.max(initialBackoff, DEFAULT_MAX_BACKOFF));
+		// a probe must not be given up before the transport itself gives up
+		long timeout = 0;
+		for (String property : TIMEOUT_PROPERTIES)
+			timeout = Math.max(timeout, PropertyValues.getLong(properties, property, 0));
+		long probeTimeout = PropertyValues.getLong(properties, Messenger.CIRCUIT_BREAKER_PROBE_TIMEOUT_PROPERTY, Math.max(timeout, DEFAULT_PROBE_TIMEOUT));
+		if (probeTimeout < timeout)
+			throw new ValidationException("Invalid circuit breaker settings: probe timeout " + probeTimeout + " is less than the transport timeout " + timeout);
+		try {
+			return new CircuitBreaker((int) Math.min(Integer.MAX_VALUE, threshold), initialBackoff, maxBackoff, probeTimeout);
+		} catch (IllegalArgumentException e) {
+			throw new ValidationException("Invalid circuit breaker settings: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Check whether a send is allowed. If the circuit is open and the backoff
+	 * time has elapsed, the circuit becomes half open and the caller performs
+	 * the probe send. The result of an allowed send must be reported with
+	 * {@link #onSuccess()} or {@link #onFailure()}. If the result of a probe
+	 * is not reported within the probe timeout, another probe is allowed.
+	 * 
+	 * @return true if the send is allowed, false if it should fail fast
+	 */
+	public synchronized boolean allowRequest() {
+		switch (this.state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+		case HALF_OPEN:
+			long now = System.currentTimeMillis();
+			if (now >= this.retryAt) {
+				// probe, the next probe is allowed if this one is not reported in time
+				this.state = State.HALF_OPEN;
+				this.retryAt = now + this.probeTimeout;
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Check whether a send is allowed, see {@link #allowRequest()}
+	 * 
+	 * @throws CircuitOpenException
+	 *             if the send should fail fast
+	 */
+	public void acquire() throws CircuitOpenException {
+		if (!allowRequest())
+			throw new CircuitOpenException("Circuit is open, next attempt in " + Math.max(0, getRetryAt() - System.currentTimeMillis()) + "ms");
+	}
+
+	/**
+	 * Report a successful send, closes the circuit
+	 */
+	public synchronized void onSuccess() {
+		this.state = State.CLOSED;
+		this.failures = 0;
+		this.backoff = 0;
+	}
+
+	/**
+	 * Report a failed send, opens the circuit if the failure threshold is
+	 * reached or the probe failed
+	 */
+	public synchronized void onFailure() {
+		if (this.state == State.HALF_OPEN) {
+			this.backoff = Math.min(this.maxBackoff, this.backoff * 2);
+			open();
+		} else if (this.state == State.CLOSED && ++this.failures >= this.failureThreshold) {
+			this.backoff = this.initialBackoff;
+			open();
+		}
+	}
+
+	private void open() {
+		this.state = State.OPEN;
+		this.retryAt = System.currentTimeMillis() + this.backoff;
+	}
+
+	/**
+	 * @return the current state
+	 */
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return true if the circuit is not closed, see
+	 *         {@link Messenger#isErrorState()}
+	 */
+	public synchronized boolean isErrorState() {
+		return this.state != State.CLOSED;
+	}
+
+	/**
+	 * @return the time in milliseconds since the epoch when the next probe is
+	 *         allowed, only meaningful if the circuit is not closed. While a
+	 *         probe is in progress, this is when the probe times out.
+	 */
+	public synchronized long getRetryAt() {
+		return this.retryAt;
+	}
+}
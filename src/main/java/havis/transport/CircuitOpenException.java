@@ -0,0 +1,22 @@
+package havis.transport;
+
+/**
+ * Thrown when a send fails fast because the {@link CircuitBreaker} of the
+ * messenger is open
+ */
+public class CircuitOpenException extends TransportConnectionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CircuitOpenException() {
+		super();
+	}
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+
+	public CircuitOpenException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,88 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache of values per class which does not keep the classes reachable. The
+ * values are attached to the classes using a {@link ClassValue}, so a value
+ * may reference its class and is collected together with the class and its
+ * class loader, e.g. when the bundle providing the class is uninstalled.
+ * 
+ * @param <V>
+ *            type of the cached values
+ */
+final class ClassCache<V> {
+
+	private final ClassValue<AtomicReference<V>> values = new ClassValue<AtomicReference<V>>() {
+		@Override
+		protected AtomicReference<V> computeValue(Class<?> type) {
+			return new AtomicReference<>();
+		}
+	};
+
+	private final Set<Class<?>> classes = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>()));
+
+	/**
+	 * @param clazz
+	 *            the class
+	 * @return the value or null if there is none
+	 */
+	V get(Class<?> clazz) {
+		return this.values.get(clazz).get();
+	}
+
+	/**
+	 * Set the value if there is none yet
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param value
+	 *            the value
+	 * @return the existing value or null if the value was set
+	 */
+	V putIfAbsent(Class<?> clazz, V value) {
+		AtomicReference<V> reference = this.values.get(clazz);
+		while (true) {
+			if (reference.compareAndSet(null, value)) {
+				this.classes.add(clazz);
+				return null;
+			}
+			V existing = reference.get();
+			if (existing != null)
+				return existing;
+		}
+	}
+
+	/**
+	 * @param clazz
+	 *            the class
+	 * @return the removed value or null if there was none
+	 */
+	V remove(Class<?> clazz) {
+		this.classes.remove(clazz);
+		return this.values.get(clazz).getAndSet(null);
+	}
+
+	/**
+	 * @return the classes with a value, classes which have been collected are
+	 *         omitted
+	 */
+	List<Class<?>> classes() {
+		synchronized (this.classes) {
+			return new ArrayList<>(this.classes);
+		}
+	}
+
+	/**
+	 * Remove all values
+	 */
+	void clear() {
+		for (Class<?> clazz : classes())
+			remove(clazz);
+	}
+}
@@ -0,0 +1,170 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of marshallers by MIME type, used to look up the codec for the
+ * {@link Messenger#MIMETYPE_PROPERTY} of a messenger. The default registry
+ * contains the pooled XML codec for {@link Messenger#DEFAULT_MIMETYPE} and
+ * application/xml and the compact binary codec for
+ * {@link Messenger#COMPACT_MIMETYPE}.
+ * Further codecs can be registered by transport implementations or
+ * applications. The shared marshallers are attached to the message classes,
+ * so they do not keep the classes and their class loaders reachable.
+ */
+public class CodecRegistry {
+
+	private final static CodecRegistry DEFAULT = new CodecRegistry();
+
+	static {
+		MarshallerFactory xml = new MarshallerFactory() {
+			@Override
+			public <T> Marshaller<T> create(Class<T> clazz) throws ValidationException {
+				return new XmlMarshaller<T>(clazz);
+			}
+		};
+		DEFAULT.register(Messenger.DEFAULT_MIMETYPE, xml);
+		DEFAULT.register("application/xml", xml);
+		DEFAULT.register(Messenger.COMPACT_MIMETYPE, new MarshallerFactory() {
+			@Override
+			public <T> Marshaller<T> create(Class<T> clazz) throws ValidationException {
+				return new CompactBinaryMarshaller<T>(clazz);
+			}
+		});
+	}
+
+	private final ConcurrentMap<String, MarshallerFactory> factories = new ConcurrentHashMap<>();
+	// marshallers by normalized MIME type, attached to the message classes
+	private final ClassCache<ConcurrentMap<String, Marshaller<?>>> marshallers = new ClassCache<>();
+
+	/**
+	 * @return the default registry
+	 */
+	public static CodecRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Normalize a MIME type, i.e. remove parameters and convert to lower case
+	 * 
+	 * @param mimeType
+	 *            the MIME type, e.g. 'text/xml; charset=UTF-8'
+	 * @return the normalized MIME type, e.g. 'text/xml'
+	 */
+	public static String normalize(String mimeType) {
+		int index = mimeType.indexOf(';');
+		return (index > -1 ? mimeType.substring(0, index) : mimeType).trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Register a codec, replaces any codec registered for the MIME type
+	 * 
+	 * @param mimeType
+	 *            the MIME type
+	 * @param factory
+	 *            the factory for marshallers of the MIME type
+	 */
+	public void register(String mimeType, final MarshallerFactory factory) {
+		// evict under the lock of the MIME type, see get(String, Class)
+		this.factories.compute(normalize(mimeType), (key, current) -> {
+			evict(key);
+			return factory;
+		});
+	}
+
+	/**
+	 * Unregister the codec of a MIME type
+	 * 
+	 * @param mimeType
+	 *            the MIME type
+	 */
+	public void unregister(String mimeType) {
+		this.factories.compute(normalize(mimeType), (key, current) -> {
+			evict(key);
+			return null;
+		});
+	}
+
+	private void evict(String mimeType) {
+		for (Class<?> clazz : this.marshallers.classes()) {
+			ConcurrentMap<String, Marshaller<?>> marshallers = this.marshallers.get(clazz);
+			if (marshallers != null)
+				marshallers.remove(mimeType);
+		}
+	}
+
+	/**
+	 * Remove the shared marshallers of a message class, e.g. when the bundle
+	 * providing the class is stopped
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 */
+	public void remove(Class<?> clazz) {
+		this.marshallers.remove(clazz);
+	}
+
+	/**
+	 * @return the MIME types with a registered codec
+	 */
+	public List<String> getMimeTypes() {
+		return new ArrayList<>(this.factories.keySet());
+	}
+
+	/**
+	 * @param mimeType
+	 *            the MIME type
+	 * @return true if a codec is registered for the MIME type, false
+	 *         otherwise
+	 */
+	public boolean supports(String mimeType) {
+		return this.factories.containsKey(normalize(mimeType));
+	}
+
+	/**
+	 * Get the shared marshaller for the specified MIME type and message
+	 * class, creates it on first use
+	 * 
+	 * @param mimeType
+	 *            the MIME type
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @return the marshaller
+	 * @throws ValidationException
+	 *             if no codec is registered for the MIME type or the class is
+	 *             not supported by the codec
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Marshaller<T> get(String mimeType, Class<T> clazz) throws ValidationException {
+		String normalized = normalize(mimeType);
+		ConcurrentMap<String, Marshaller<?>> marshallers = this.marshallers.get(clazz);
+		if (marshallers == null) {
+			marshallers = new ConcurrentHashMap<>();
+			ConcurrentMap<String, Marshaller<?>> existing = this.marshallers.putIfAbsent(clazz, marshallers);
+			if (existing != null)
+				marshallers = existing;
+		}
+		Marshaller<T> marshaller = (Marshaller<T>) marshallers.get(normalized);
+		if (marshaller == null) {
+			final MarshallerFactory factory = this.factories.get(normalized);
+			if (factory == null)
+				throw new ValidationException("No codec registered for MIME type '" + mimeType + "'");
+			final Marshaller<T> created = factory.create(clazz);
+			final ConcurrentMap<String, Marshaller<?>> target = marshallers;
+			// only cache the marshaller if its factory has not been replaced
+			// meanwhile, checked under the same lock register evicts under
+			this.factories.computeIfPresent(normalized, (key, current) -> {
+				if (current == factory)
+					target.putIfAbsent(key, created);
+				return current;
+			});
+			Marshaller<T> existing = (Marshaller<T>) marshallers.get(normalized);
+			marshaller = existing != null ? existing : created;
+		}
+		return marshaller;
+	}
+}
@@ -0,0 +1,985 @@
+package havis.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Marshaller for the compact binary encoding of
+ * {@link Messenger#COMPACT_MIMETYPE}. The schema is derived from the
+ * non-static, non-transient fields of the message class and its field types,
+ * ordered by declaring class (super classes first) and name. Values are
+ * written in schema order without names or tags, integers as variable length
+ * zig-zag integers. Each message starts with a fingerprint of the schema, so
+ * messages of a different class version are rejected instead of being
+ * misread.
+ * 
+ * Supported are primitives and their wrappers, strings, enums, dates,
+ * {@link BigInteger}, {@link BigDecimal}, {@link XMLGregorianCalendar},
+ * arrays, collections and maps of supported types and classes with a no-arg
+ * constructor, as generated by JAXB. Fields of abstract types like
+ * {@link Object} are not supported. Unmarshalling reads exactly one message
+ * from the stream without reading ahead, so the source should be buffered.
+ * Messages larger than the maximum message size are rejected, sizes read from
+ * the message are checked against the bytes left within the maximum before
+ * anything is allocated for them.
+ * Marshalling into pooled buffers writes the encoding straight into the
+ * direct buffers (see {@link ChannelMarshaller}).
+ */
+public class CompactBinaryMarshaller<T> implements ChannelMarshaller<T> {
+
+	private interface Codec {
+		void write(Encoder out, Object value) throws IOException;
+
+		Object read(Decoder in) throws IOException;
+	}
+
+	/**
+	 * The default maximum size of a message in bytes
+	 */
+	public final static int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+	private final static int MAX_DEPTH = 1000;
+	private final static int INITIAL_CAPACITY = 64;
+
+	private final Class<T> clazz;
+	private final int maxMessageSize;
+	private final Codec codec;
+	private final int fingerprint;
+
+	/**
+	 * Creates a new marshaller accepting messages up to
+	 * {@link #DEFAULT_MAX_MESSAGE_SIZE}
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @throws ValidationException
+	 *             if the class contains unsupported field types
+	 */
+	public CompactBinaryMarshaller(Class<T> clazz) throws ValidationException {
+		this(clazz, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * Creates a new marshaller
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param maxMessageSize
+	 *            the maximum size of a message in bytes, larger messages are
+	 *            rejected when unmarshalling
+	 * @throws ValidationException
+	 *             if the class contains unsupported field types
+	 */
+	public CompactBinaryMarshaller(Class<T> clazz, int maxMessageSize) throws ValidationException {
+		if (maxMessageSize < 1)
+			throw new ValidationException("Maximum message size must be greater than 0");
+		this.clazz = clazz;
+		this.maxMessageSize = maxMessageSize;
+		StringBuilder schema = new StringBuilder();
+		this.codec = nullable(codec(clazz, new HashMap<Class<?>, ObjectCodec>(), schema));
+		this.fingerprint = schema.toString().hashCode();
+	}
+
+	/**
+	 * @return the maximum size of a message in bytes
+	 */
+	public int getMaxMessageSize() {
+		return this.maxMessageSize;
+	}
+
+	@Override
+	public void marshal(T message, OutputStream target) throws TransportException {
+		try {
+			encode(new StreamEncoder(target), message);
+		} catch (IOException | RuntimeException e) {
+			throw new TransportException("Failed to marshal message", e);
+		}
+	}
+
+	/**
+	 * Marshal the message straight into pooled direct buffers, without an
+	 * intermediate buffer
+	 */
+	@Override
+	public PooledByteBufferOutputStream marshal(T message, ByteBufferPool pool) throws TransportException {
+		if (pool.getBufferSize() < Encoder.MAX_WRITE)
+			return ChannelMarshaller.super.marshal(message, pool);
+		PooledByteBufferOutputStream stream = new PooledByteBufferOutputStream(pool);
+		try {
+			encode(new PooledEncoder(stream), message);
+		} catch (IOException | RuntimeException e) {
+			stream.close();
+			throw new TransportException("Failed to marshal message", e);
+		}
+		return stream;
+	}
+
+	/**
+	 * Marshal the message through a buffer written to the channel whenever it
+	 * is full
+	 */
+	@Override
+	public void marshal(T message, WritableByteChannel target) throws TransportException {
+		try {
+			encode(new ChannelEncoder(target), message);
+		} catch (IOException | RuntimeException e) {
+			throw new TransportException("Failed to marshal message", e);
+		}
+	}
+
+	private void encode(Encoder out, T message) throws IOException {
+		out.writeInt(this.fingerprint);
+		this.codec.write(out, message);
+		out.flush();
+	}
+
+	@Override
+	public T unmarshal(InputStream source) throws TransportException {
+		try {
+			Decoder in = new Decoder(source, this.maxMessageSize);
+			if (in.readInt() != this.fingerprint)
+				throw new TransportException("Message does not match the schema of " + this.clazz.getName());
+			return this.clazz.cast(this.codec.read(in));
+		} catch (IOException | RuntimeException e) {
+			throw new TransportException("Failed to unmarshal message", e);
+		}
+	}
+
+	private static Codec codec(Type type, Map<Class<?>, ObjectCodec> objects, StringBuilder schema) throws ValidationException {
+		if (type instanceof Class) {
+			Class<?> clazz = (Class<?>) type;
+			if (clazz.isPrimitive())
+				return primitive(clazz, schema);
+			Codec primitive = boxed(clazz, schema);
+			if (primitive != null)
+				return primitive;
+			if (clazz == String.class) {
+				schema.append("string;");
+				return STRING;
+			}
+			if (clazz == byte[].class) {
+				schema.append("bytes;");
+				return BYTES;
+			}
+			if (clazz.isEnum()) {
+				schema.append("enum").append(Arrays.toString(clazz.getEnumConstants())).append(';');
+				return new EnumCodec(clazz);
+			}
+			if (clazz == Date.class) {
+				schema.append("date;");
+				return DATE;
+			}
+			if (clazz == BigInteger.class || clazz == BigDecimal.class) {
+				schema.append(clazz.getSimpleName()).append(';');
+				return new NumberCodec(clazz);
+			}
+			if (XMLGregorianCalendar.class.isAssignableFrom(clazz)) {
+				schema.append("calendar;");
+				try {
+					return new CalendarCodec(DatatypeFactory.newInstance());
+				} catch (DatatypeConfigurationException e) {
+					throw new ValidationException("Failed to create datatype factory", e);
+				}
+			}
+			if (clazz.isArray()) {
+				// elements of primitive arrays cannot be null and need no null marker
+				boolean values = clazz.getComponentType().isPrimitive();
+				schema.append(values ? "array<" : "array<?");
+				Codec component = codec(clazz.getComponentType(), objects, schema);
+				schema.append(">;");
+				return new ArrayCodec(clazz.getComponentType(), values ? component : nullable(component));
+			}
+			if (Collection.class.isAssignableFrom(clazz) || Map.class.isAssignableFrom(clazz))
+				throw new ValidationException("Raw type " + clazz.getName() + " is not supported");
+			return object(clazz, objects, schema);
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterized = (ParameterizedType) type;
+			Class<?> raw = (Class<?>) parameterized.getRawType();
+			Type[] arguments = parameterized.getActualTypeArguments();
+			if (Collection.class.isAssignableFrom(raw)) {
+				schema.append("collection<");
+				Codec element = nullable(codec(argument(arguments[0]), objects, schema));
+				schema.append(">;");
+				return new CollectionCodec(raw, element);
+			}
+			if (Map.class.isAssignableFrom(raw)) {
+				schema.append("map<");
+				Codec key = nullable(codec(argument(arguments[0]), objects, schema));
+				Codec value = nullable(codec(argument(arguments[1]), objects, schema));
+				schema.append(">;");
+				return new MapCodec(raw, key, value);
+			}
+			return codec(raw, objects, schema);
+		}
+		if (type instanceof GenericArrayType) {
+			Type component = ((GenericArrayType) type).getGenericComponentType();
+			Class<?> raw = component instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) component).getRawType() : null;
+			if (raw != null) {
+				schema.append("array<");
+				Codec codec = nullable(codec(component, objects, schema));
+				schema.append(">;");
+				return new ArrayCodec(raw, codec);
+			}
+		}
+		throw new ValidationException("Type " + type + " is not supported");
+	}
+
+	private static Type argument(Type type) throws ValidationException {
+		if (type instanceof WildcardType) {
+			Type[] upper = ((WildcardType) type).getUpperBounds();
+			if (upper.length == 1 && upper[0] != Object.class)
+				return upper[0];
+		}
+		if (type instanceof Class || type instanceof ParameterizedType)
+			return type;
+		throw new ValidationException("Type argument " + type + " is not supported");
+	}
+
+	private static Codec object(Class<?> clazz, Map<Class<?>, ObjectCodec> objects, StringBuilder schema) throws ValidationException {
+		ObjectCodec codec = objects.get(clazz);
+		if (codec != null) {
+			// recursive reference, schema already described
+			schema.append("ref ").append(clazz.getName()).append(';');
+			return codec;
+		}
+		if (clazz == Object.class || clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers()))
+			throw new ValidationException("Abstract type " + clazz.getName() + " is not supported");
+		Constructor<?> constructor;
+		try {
+			constructor = clazz.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException | RuntimeException e) {
+			throw new ValidationException("Type " + clazz.getName() + " has no accessible no-arg constructor", e);
+		}
+		codec = new ObjectCodec(constructor);
+		objects.put(clazz, codec);
+
+		List<Class<?>> hierarchy = new ArrayList<>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+			hierarchy.add(0, c);
+		schema.append(clazz.getName()).append('{');
+		List<Field> fields = new ArrayList<>();
+		List<Codec> codecs = new ArrayList<>();
+		for (Class<?> c : hierarchy) {
+			Field[] declared = c.getDeclaredFields();
+			Arrays.sort(declared, new Comparator<Field>() {
+				@Override
+				public int compare(Field f1, Field f2) {
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+			for (Field field : declared) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+					continue;
+				try {
+					field.setAccessible(true);
+				} catch (RuntimeException e) {
+					throw new ValidationException("Field " + field + " is not accessible", e);
+				}
+				schema.append(field.getName()).append(':');
+				Codec fieldCodec = codec(field.getGenericType(), objects, schema);
+				fields.add(field);
+				codecs.add(field.getType().isPrimitive() ? fieldCodec : nullable(fieldCodec));
+			}
+		}
+		schema.append('}');
+		codec.fields = fields.toArray(new Field[fields.size()]);
+		codec.codecs = codecs.toArray(new Codec[codecs.size()]);
+		return codec;
+	}
+
+	private static Codec primitive(Class<?> clazz, StringBuilder schema) {
+		schema.append(clazz.getName()).append(';');
+		if (clazz == boolean.class)
+			return BOOLEAN;
+		if (clazz == byte.class)
+			return BYTE;
+		if (clazz == short.class)
+			return SHORT;
+		if (clazz == char.class)
+			return CHAR;
+		if (clazz == int.class)
+			return INT;
+		if (clazz == long.class)
+			return LONG;
+		if (clazz == float.class)
+			return FLOAT;
+		return DOUBLE;
+	}
+
+	private static Codec boxed(Class<?> clazz, StringBuilder schema) {
+		if (clazz == Boolean.class)
+			return primitive(boolean.class, schema);
+		if (clazz == Byte.class)
+			return primitive(byte.class, schema);
+		if (clazz == Short.class)
+			return primitive(short.class, schema);
+		if (clazz == Character.class)
+			return primitive(char.class, schema);
+		if (clazz == Integer.class)
+			return primitive(int.class, schema);
+		if (clazz == Long.class)
+			return primitive(long.class, schema);
+		if (clazz == Float.class)
+			return primitive(float.class, schema);
+		if (clazz == Double.class)
+			return primitive(double.class, schema);
+		return null;
+	}
+
+	/**
+	 * Codecs of strings, byte arrays, enums, arrays, collections and maps
+	 * encode null themselves, all others are prefixed with a presence flag
+	 */
+	private static Codec nullable(final Codec codec) {
+		if (codec == STRING || codec == BYTES || codec instanceof EnumCodec || codec instanceof SizedCodec)
+			return codec;
+		return new Codec() {
+			@Override
+			public void write(Encoder out, Object value) throws IOException {
+				if (value == null) {
+					out.writeByte(0);
+				} else {
+					out.writeByte(1);
+					codec.write(out, value);
+				}
+			}
+
+			@Override
+			public Object read(Decoder in) throws IOException {
+				return in.readByte() == 0 ? null : codec.read(in);
+			}
+		};
+	}
+
+	private final static Codec BOOLEAN = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeByte(((Boolean) value).booleanValue() ? 1 : 0);
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Boolean.valueOf(in.readByte() != 0);
+		}
+	};
+
+	private final static Codec BYTE = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeByte(((Byte) value).byteValue());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Byte.valueOf((byte) in.readByte());
+		}
+	};
+
+	private final static Codec SHORT = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeSigned(((Short) value).shortValue());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Short.valueOf((short) in.readSigned());
+		}
+	};
+
+	private final static Codec CHAR = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeUnsigned(((Character) value).charValue());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Character.valueOf((char) in.readUnsigned());
+		}
+	};
+
+	private final static Codec INT = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeSigned(((Integer) value).intValue());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Integer.valueOf((int) in.readSigned());
+		}
+	};
+
+	private final static Codec LONG = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeSigned(((Long) value).longValue());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Long.valueOf(in.readSigned());
+		}
+	};
+
+	private final static Codec FLOAT = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeInt(Float.floatToIntBits(((Float) value).floatValue()));
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Float.valueOf(Float.intBitsToFloat(in.readInt()));
+		}
+	};
+
+	private final static Codec DOUBLE = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeLong(Double.doubleToLongBits(((Double) value).doubleValue()));
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return Double.valueOf(Double.longBitsToDouble(in.readLong()));
+		}
+	};
+
+	private final static Codec DATE = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeSigned(((Date) value).getTime());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return new Date(in.readSigned());
+		}
+	};
+
+	private final static Codec STRING = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeBytes(value != null ? ((String) value).getBytes(StandardCharsets.UTF_8) : null);
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			byte[] bytes = in.readBytes();
+			return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+		}
+	};
+
+	private final static Codec BYTES = new Codec() {
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeBytes((byte[]) value);
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return in.readBytes();
+		}
+	};
+
+	private static class EnumCodec implements Codec {
+		private final Object[] constants;
+
+		private EnumCodec(Class<?> clazz) {
+			this.constants = clazz.getEnumConstants();
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			out.writeUnsigned(value != null ? ((Enum<?>) value).ordinal() + 1 : 0);
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			long ordinal = in.readUnsigned();
+			if (ordinal < 0 || ordinal > this.constants.length)
+				throw new IOException("Invalid enum ordinal " + (ordinal - 1));
+			return ordinal == 0 ? null : this.constants[(int) ordinal - 1];
+		}
+	}
+
+	private static class NumberCodec implements Codec {
+		private final boolean decimal;
+
+		private NumberCodec(Class<?> clazz) {
+			this.decimal = clazz == BigDecimal.class;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			STRING.write(out, value.toString());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			String value = (String) STRING.read(in);
+			return this.decimal ? new BigDecimal(value) : new BigInteger(value);
+		}
+	}
+
+	private static class CalendarCodec implements Codec {
+		private final DatatypeFactory factory;
+
+		private CalendarCodec(DatatypeFactory factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			STRING.write(out, ((XMLGregorianCalendar) value).toXMLFormat());
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			return this.factory.newXMLGregorianCalendar((String) STRING.read(in));
+		}
+	}
+
+	/**
+	 * Codec prefixing the value with its size + 1, 0 for null
+	 */
+	private static abstract class SizedCodec implements Codec {
+	}
+
+	private static class ArrayCodec extends SizedCodec {
+		private final Class<?> component;
+		private final Codec codec;
+
+		private ArrayCodec(Class<?> component, Codec codec) {
+			this.component = component;
+			this.codec = codec;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			if (value == null) {
+				out.writeUnsigned(0);
+				return;
+			}
+			int length = Array.getLength(value);
+			out.writeUnsigned(length + 1L);
+			for (int i = 0; i < length; i++)
+				this.codec.write(out, Array.get(value, i));
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			long size = in.readUnsigned();
+			if (size == 0)
+				return null;
+			int length = in.checkSize(size - 1);
+			// grown while reading, the length is not trusted
+			Object array = Array.newInstance(this.component, Math.min(length, INITIAL_CAPACITY));
+			for (int i = 0; i < length; i++) {
+				int capacity = Array.getLength(array);
+				if (i == capacity) {
+					Object grown = Array.newInstance(this.component, (int) Math.min(length, 2L * capacity));
+					System.arraycopy(array, 0, grown, 0, capacity);
+					array = grown;
+				}
+				Array.set(array, i, this.codec.read(in));
+			}
+			return array;
+		}
+	}
+
+	private static class CollectionCodec extends SizedCodec {
+		private final Class<?> clazz;
+		private final Codec codec;
+
+		private CollectionCodec(Class<?> clazz, Codec codec) {
+			this.clazz = clazz;
+			this.codec = codec;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			if (value == null) {
+				out.writeUnsigned(0);
+				return;
+			}
+			Collection<?> collection = (Collection<?>) value;
+			out.writeUnsigned(collection.size() + 1L);
+			for (Object element : collection)
+				this.codec.write(out, element);
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			long size = in.readUnsigned();
+			if (size == 0)
+				return null;
+			int length = in.checkSize(size - 1);
+			Collection<Object> collection = newCollection();
+			for (int i = 0; i < length; i++)
+				collection.add(this.codec.read(in));
+			return collection;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Collection<Object> newCollection() throws IOException {
+			if (this.clazz.isAssignableFrom(ArrayList.class))
+				return new ArrayList<>();
+			if (this.clazz.isAssignableFrom(LinkedHashSet.class))
+				return new LinkedHashSet<>();
+			return (Collection<Object>) newInstance(this.clazz);
+		}
+	}
+
+	private static class MapCodec extends SizedCodec {
+		private final Class<?> clazz;
+		private final Codec key;
+		private final Codec value;
+
+		private MapCodec(Class<?> clazz, Codec key, Codec value) {
+			this.clazz = clazz;
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			if (value == null) {
+				out.writeUnsigned(0);
+				return;
+			}
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeUnsigned(map.size() + 1L);
+			for (Entry<?, ?> entry : map.entrySet()) {
+				this.key.write(out, entry.getKey());
+				this.value.write(out, entry.getValue());
+			}
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object read(Decoder in) throws IOException {
+			long size = in.readUnsigned();
+			if (size == 0)
+				return null;
+			int length = in.checkSize(size - 1);
+			Map<Object, Object> map = this.clazz.isAssignableFrom(LinkedHashMap.class) ? new LinkedHashMap<>() : (Map<Object, Object>) newInstance(this.clazz);
+			for (int i = 0; i < length; i++) {
+				Object key = this.key.read(in);
+				map.put(key, this.value.read(in));
+			}
+			return map;
+		}
+	}
+
+	private static class ObjectCodec implements Codec {
+		private final Constructor<?> constructor;
+		private Field[] fields;
+		private Codec[] codecs;
+
+		private ObjectCodec(Constructor<?> constructor) {
+			this.constructor = constructor;
+		}
+
+		@Override
+		public void write(Encoder out, Object value) throws IOException {
+			try {
+				for (int i = 0; i < this.fields.length; i++)
+					this.codecs[i].write(out, this.fields[i].get(value));
+			} catch (IllegalAccessException e) {
+				throw new IOException("Failed to read field", e);
+			}
+		}
+
+		@Override
+		public Object read(Decoder in) throws IOException {
+			in.enter();
+			try {
+				Object value = this.constructor.newInstance();
+				for (int i = 0; i < this.fields.length; i++)
+					this.fields[i].set(value, this.codecs[i].read(in));
+				return value;
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("Failed to create " + this.constructor.getDeclaringClass().getName(), e);
+			} finally {
+				in.leave();
+			}
+		}
+	}
+
+	private static Object newInstance(Class<?> clazz) throws IOException {
+		try {
+			return clazz.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IOException("Failed to create " + clazz.getName(), e);
+		}
+	}
+
+	/**
+	 * Buffered writer of the encoding primitives
+	 */
+	private static abstract class Encoder {
+		/**
+		 * The maximum number of bytes written at once
+		 */
+		final static int MAX_WRITE = 10;
+
+		ByteBuffer buffer;
+
+		private Encoder(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private void ensure(int count) throws IOException {
+			if (this.buffer.remaining() < count)
+				drain();
+		}
+
+		/**
+		 * Hand over the buffered bytes, at least {@link #MAX_WRITE} bytes are
+		 * available in the buffer afterwards
+		 */
+		abstract void drain() throws IOException;
+
+		/**
+		 * Hand over the buffered bytes at the end of the message
+		 */
+		void flush() throws IOException {
+			drain();
+		}
+
+		void writeByte(int value) throws IOException {
+			ensure(1);
+			this.buffer.put((byte) value);
+		}
+
+		void writeInt(int value) throws IOException {
+			ensure(4);
+			this.buffer.putInt(value);
+		}
+
+		void writeLong(long value) throws IOException {
+			ensure(8);
+			this.buffer.putLong(value);
+		}
+
+		void writeUnsigned(long value) throws IOException {
+			ensure(MAX_WRITE);
+			while ((value & ~0x7FL) != 0) {
+				this.buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			this.buffer.put((byte) value);
+		}
+
+		void writeSigned(long value) throws IOException {
+			writeUnsigned((value << 1) ^ (value >> 63));
+		}
+
+		void writeBytes(byte[] bytes) throws IOException {
+			if (bytes == null) {
+				writeUnsigned(0);
+				return;
+			}
+			writeUnsigned(bytes.length + 1L);
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensure(1);
+				int count = Math.min(bytes.length - offset, this.buffer.remaining());
+				this.buffer.put(bytes, offset, count);
+				offset += count;
+			}
+		}
+	}
+
+	private static class StreamEncoder extends Encoder {
+		private final OutputStream target;
+
+		private StreamEncoder(OutputStream target) {
+			super(ByteBuffer.allocate(4096));
+			this.target = target;
+		}
+
+		@Override
+		void drain() throws IOException {
+			this.target.write(this.buffer.array(), 0, this.buffer.position());
+			this.buffer.clear();
+		}
+	}
+
+	private static class ChannelEncoder extends Encoder {
+		private final WritableByteChannel target;
+
+		private ChannelEncoder(WritableByteChannel target) {
+			super(ByteBuffer.allocate(8192));
+			this.target = target;
+		}
+
+		@Override
+		void drain() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+				this.target.write(this.buffer);
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * Encoder writing straight into the buffers of a pooled stream, a new
+	 * buffer is started if the current one has not enough space left
+	 */
+	private static class PooledEncoder extends Encoder {
+		private final PooledByteBufferOutputStream target;
+		private int start;
+
+		private PooledEncoder(PooledByteBufferOutputStream target) throws IOException {
+			super(target.buffer(MAX_WRITE));
+			this.target = target;
+			this.start = this.buffer.position();
+		}
+
+		@Override
+		void drain() throws IOException {
+			flush();
+			this.buffer = this.target.buffer(MAX_WRITE);
+			this.start = this.buffer.position();
+		}
+
+		@Override
+		void flush() {
+			this.target.written(this.buffer.position() - this.start);
+			this.start = this.buffer.position();
+		}
+	}
+
+	/**
+	 * Reader of the encoding primitives, limited to the maximum message size
+	 */
+	private static class Decoder {
+		private final InputStream source;
+		private final long limit;
+		private long count;
+		private int depth;
+
+		private Decoder(InputStream source, long limit) {
+			this.source = source;
+			this.limit = limit;
+		}
+
+		int readByte() throws IOException {
+			if (this.count >= this.limit)
+				throw new IOException("Message exceeds the maximum size of " + this.limit + " bytes");
+			int value = this.source.read();
+			if (value < 0)
+				throw new EOFException();
+			this.count++;
+			return value;
+		}
+
+		int readInt() throws IOException {
+			int value = 0;
+			for (int i = 0; i < 4; i++)
+				value = (value << 8) | readByte();
+			return value;
+		}
+
+		long readLong() throws IOException {
+			long value = 0;
+			for (int i = 0; i < 8; i++)
+				value = (value << 8) | readByte();
+			return value;
+		}
+
+		long readUnsigned() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IOException("Invalid variable length integer");
+		}
+
+		long readSigned() throws IOException {
+			long value = readUnsigned();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		/**
+		 * Check a size read from the message, each element or byte takes at
+		 * least one byte, so the size cannot exceed the bytes left within
+		 * the maximum message size
+		 */
+		int checkSize(long size) throws IOException {
+			if (size < 0 || size > this.limit - this.count)
+				throw new IOException("Invalid size " + size + ", only " + (this.limit - this.count) + " bytes left within the maximum message size");
+			return (int) size;
+		}
+
+		byte[] readBytes() throws IOException {
+			long size = readUnsigned();
+			if (size == 0)
+				return null;
+			int length = checkSize(size - 1);
+			// grown while reading, the length is not trusted
+			byte[] bytes = new byte[Math.min(length, 8192)];
+			int offset = 0;
+			while (offset < length) {
+				if (offset == bytes.length)
+					bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+				int count = this.source.read(bytes, offset, bytes.length - offset);
+				if (count < 0)
+					throw new EOFException();
+				offset += count;
+				this.count += count;
+			}
+			return bytes;
+		}
+
+		void enter() throws IOException {
+			if (++this.depth > MAX_DEPTH)
+				throw new IOException("Message exceeds the maximum nesting depth of " + MAX_DEPTH);
+		}
+
+		void leave() {
+			this.depth--;
+		}
+	}
+}
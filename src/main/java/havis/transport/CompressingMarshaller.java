@@ -0,0 +1,94 @@
+package havis.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Marshaller compressing the output of another marshaller, placed between
+ * marshalling and transport when {@link Messenger#COMPRESSION_PROPERTY} is
+ * set. HTTP transporters must send the Content-Encoding header returned by
+ * {@link #getCompression()}.
+ */
+public class CompressingMarshaller<T> implements Marshaller<T> {
+
+	private final Marshaller<T> delegate;
+	private final Compression compression;
+	private final int level;
+
+	/**
+	 * Creates a new compressing marshaller
+	 * 
+	 * @param delegate
+	 *            the marshaller to compress the output of
+	 * @param compression
+	 *            the compression
+	 * @param level
+	 *            the compression level from 0 to 9, or -1 for the default
+	 *            level
+	 */
+	public CompressingMarshaller(Marshaller<T> delegate, Compression compression, int level) {
+		this.delegate = delegate;
+		this.compression = compression;
+		this.level = level;
+	}
+
+	/**
+	 * Wrap the marshaller if compression is set in the properties
+	 * 
+	 * @param delegate
+	 *            the marshaller
+	 * @param properties
+	 *            the properties of the messenger
+	 * @return the compressing marshaller or the specified marshaller if no
+	 *         compression is set
+	 * @throws ValidationException
+	 *             if the properties are not valid
+	 */
+	public static <T> Marshaller<T> wrap(Marshaller<T> delegate, Map<String, String> properties) throws ValidationException {
+		Compression compression = Compression.parse(properties != null ? properties.get(Messenger.COMPRESSION_PROPERTY) : null);
+		if (compression == Compression.NONE)
+			return delegate;
+		return new CompressingMarshaller<T>(delegate, compression, Compression.getLevel(properties));
+	}
+
+	/**
+	 * @return the compression
+	 */
+	public Compression getCompression() {
+		return this.compression;
+	}
+
+	@Override
+	public T unmarshal(InputStream source) throws TransportException {
+		try {
+			return this.delegate.unmarshal(this.compression.decompress(source));
+		} catch (IOException e) {
+			throw new TransportException("Failed to decompress message", e);
+		}
+	}
+
+	@Override
+	public void marshal(T message, OutputStream target) throws TransportException {
+		Deflater deflater = this.compression.createDeflater(this.level);
+		if (deflater == null) {
+			this.delegate.marshal(message, target);
+			return;
+		}
+		// the trailer is only written if marshalling succeeded, the target
+		// is not closed, it remains open for the transporter
+		try {
+			DeflaterOutputStream stream = this.compression.compress(target, deflater);
+			this.delegate.marshal(message, stream);
+			stream.finish();
+			stream.flush();
+		} catch (IOException e) {
+			throw new TransportException("Failed to compress message", e);
+		} finally {
+			deflater.end();
+		}
+	}
+}
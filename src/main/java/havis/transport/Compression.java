@@ -0,0 +1,155 @@
+package havis.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of marshalled messages, set with
+ * {@link Messenger#COMPRESSION_PROPERTY}
+ */
+public enum Compression {
+
+	/**
+	 * No compression
+	 */
+	NONE(null),
+
+	/**
+	 * GZIP compression (RFC 1952)
+	 */
+	GZIP("gzip"),
+
+	/**
+	 * Deflate compression in zlib format (RFC 1950)
+	 */
+	DEFLATE("deflate");
+
+	private final String contentEncoding;
+
+	private Compression(String contentEncoding) {
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * @return the HTTP Content-Encoding header value or null if not
+	 *         compressed
+	 */
+	public String getContentEncoding() {
+		return this.contentEncoding;
+	}
+
+	/**
+	 * Create the deflater for {@link #compress(OutputStream, Deflater)}, which
+	 * must be released with {@link Deflater#end()} after use
+	 * 
+	 * @param level
+	 *            the compression level from 0 to 9, or -1 for the default
+	 *            level
+	 * @return the deflater or null if not compressed
+	 */
+	public Deflater createDeflater(int level) {
+		switch (this) {
+		case GZIP:
+			// GZIP writes its own header and trailer around the raw data
+			return new Deflater(level, true);
+		case DEFLATE:
+			return new Deflater(level);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Wrap the target in a compressing stream. The returned stream must be
+	 * finished to write all compressed data, closing it also closes the
+	 * target. The deflater remains owned by the caller, so it can be released
+	 * without finishing the stream if writing failed.
+	 * 
+	 * @param target
+	 *            the stream to write the compressed data to
+	 * @param deflater
+	 *            the deflater created by {@link #createDeflater(int)}
+	 * @return the compressing stream or null if not compressed
+	 * @throws IOException
+	 *             if writing the header fails
+	 */
+	public DeflaterOutputStream compress(OutputStream target, final Deflater deflater) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPOutputStream(target) {
+				{
+					// replace the default deflater by the one of the caller
+					this.def.end();
+					this.def = deflater;
+				}
+			};
+		case DEFLATE:
+			return new DeflaterOutputStream(target, deflater);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Wrap the source in a decompressing stream
+	 * 
+	 * @param source
+	 *            the stream to read the compressed data from
+	 * @return the decompressing stream or the source if not compressed
+	 * @throws IOException
+	 *             if reading the header fails
+	 */
+	public InputStream decompress(InputStream source) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPInputStream(source);
+		case DEFLATE:
+			return new InflaterInputStream(source);
+		default:
+			return source;
+		}
+	}
+
+	/**
+	 * Parse the compression from a property value or Content-Encoding header
+	 * 
+	 * @param value
+	 *            the value, e.g. 'gzip' or 'deflate'
+	 * @return the compression, {@link #NONE} if the value is null, empty,
+	 *         'none' or 'identity'
+	 * @throws ValidationException
+	 *             if the compression is not supported
+	 */
+	public static Compression parse(String value) throws ValidationException {
+		if (value == null || value.trim().isEmpty() || value.trim().equalsIgnoreCase("identity"))
+			return NONE;
+		for (Compression compression : values())
+			if (compression.name().equalsIgnoreCase(value.trim()))
+				return compression;
+		throw new ValidationException("Unsupported compression '" + value + "'");
+	}
+
+	/**
+	 * Get the compression level from the properties
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @return the level from {@link Messenger#COMPRESSION_LEVEL_PROPERTY} or
+	 *         -1 for the default level
+	 * @throws ValidationException
+	 *             if the level is not valid
+	 */
+	public static int getLevel(Map<String, String> properties) throws ValidationException {
+		int level = PropertyValues.getInt(properties, Messenger.COMPRESSION_LEVEL_PROPERTY, Deflater.DEFAULT_COMPRESSION);
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw PropertyValues.invalid(Messenger.COMPRESSION_LEVEL_PROPERTY, Integer.valueOf(level));
+		return level;
+	}
+}
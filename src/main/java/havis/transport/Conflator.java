@@ -0,0 +1,227 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conflates messages within a time window, only the latest message per key
+ * is kept and all kept messages are handed over as one batch when the window
+ * closes. The window opens with the first message after a flush. Used by
+ * messengers to implement {@link Messenger#CONFLATION_WINDOW_MS_PROPERTY} and
+ * {@link Messenger#CONFLATION_KEY_PROPERTY}, e.g. for dashboards which only
+ * need the current state of each tag.
+ * 
+ * @param <E>
+ *            type of the conflated messages
+ */
+public class Conflator<E> {
+
+	/**
+	 * Handler for conflated batches
+	 * 
+	 * @param <E>
+	 *            type of the conflated messages
+	 */
+	public interface Handler<E> {
+		/**
+		 * Called with the messages of a closed window, in the order their keys
+		 * first occurred within the window. The handler is called while the
+		 * conflator is locked to keep the order of the batches, so it should
+		 * hand over the batch quickly, e.g. to an executor.
+		 * 
+		 * @param batch
+		 *            the latest message per key, never empty
+		 */
+		void flush(List<E> batch);
+
+		/**
+		 * Called with a message replaced by a later message with the same key,
+		 * after the conflator was unlocked. By default the message is
+		 * cancelled if it is a {@link Future}, e.g. the
+		 * {@link FutureSendTask} of a send request, so callers waiting for it
+		 * are released.
+		 * 
+		 * @param message
+		 *            the replaced message, which will not be flushed
+		 */
+		default void replaced(E message) {
+			if (message instanceof Future)
+				((Future<?>) message).cancel(false);
+		}
+	}
+
+	private final long windowMs;
+	private final PropertyAccessor key;
+	private final ScheduledExecutorService scheduler;
+	private final Handler<E> handler;
+
+	private Map<Object, E> messages;
+	private ScheduledFuture<?> window;
+	private long conflated;
+
+	/**
+	 * Creates a new conflator
+	 * 
+	 * @param windowMs
+	 *            the length of the window in milliseconds
+	 * @param key
+	 *            the accessor for the key of a message, null to only keep the
+	 *            latest message of each window
+	 * @param scheduler
+	 *            the scheduler to close the windows on
+	 * @param handler
+	 *            the handler for conflated batches
+	 */
+	public Conflator(long windowMs, PropertyAccessor key, ScheduledExecutorService scheduler, Handler<E> handler) {
+		if (windowMs < 1)
+			throw new IllegalArgumentException("windowMs must be greater than 0");
+		if (scheduler == null)
+			throw new IllegalArgumentException("scheduler must not be null");
+		if (handler == null)
+			throw new IllegalArgumentException("handler must not be null");
+		this.windowMs = windowMs;
+		this.key = key;
+		this.scheduler = scheduler;
+		this.handler = handler;
+	}
+
+	/**
+	 * Creates a new conflator from the properties
+	 * {@link Messenger#CONFLATION_WINDOW_MS_PROPERTY} and
+	 * {@link Messenger#CONFLATION_KEY_PROPERTY}
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages the key is read from, which
+	 *            may differ from the conflated elements, see
+	 *            {@link #add(Object, Object)}
+	 * @param properties
+	 *            the properties of the subscription
+	 * @param scheduler
+	 *            the scheduler to close the windows on
+	 * @param handler
+	 *            the handler for conflated batches
+	 * @return the conflator or null if conflation is not enabled
+	 * @throws ValidationException
+	 *             if the properties are not valid
+	 */
+	public static <E> Conflator<E> create(Class<?> clazz, Map<String, String> properties, ScheduledExecutorService scheduler, Handler<E> handler)
+			throws ValidationException {
+		long windowMs = PropertyValues.getLong(properties, Messenger.CONFLATION_WINDOW_MS_PROPERTY, 0);
+		if (windowMs < 1)
+			return null;
+		String expression = PropertyValues.get(properties, Messenger.CONFLATION_KEY_PROPERTY);
+		PropertyAccessor key = expression != null ? PropertyAccessor.get(clazz, expression) : null;
+		return new Conflator<E>(windowMs, key, scheduler, handler);
+	}
+
+	/**
+	 * @return the length of the window in milliseconds
+	 */
+	public long getWindowMs() {
+		return this.windowMs;
+	}
+
+	/**
+	 * Get the conflation key of a message
+	 * 
+	 * @param message
+	 *            the message
+	 * @return the key, null if only the latest message of each window is kept
+	 * @throws TransportException
+	 *             if the key could not be read from the message
+	 */
+	public Object getKey(Object message) throws TransportException {
+		return this.key != null ? this.key.read(message) : null;
+	}
+
+	/**
+	 * Adds a message, replaces the message with the same key in the current
+	 * window. The replaced message is passed to
+	 * {@link Handler#replaced(Object)}.
+	 * 
+	 * @param message
+	 *            the message to add, the key is read from the message
+	 * @return the replaced message or null if no message with the same key was
+	 *         in the current window
+	 * @throws TransportException
+	 *             if the key could not be read from the message
+	 */
+	public E add(E message) throws TransportException {
+		return add(getKey(message), message);
+	}
+
+	/**
+	 * Adds an element with the specified key, replaces the element with the
+	 * same key in the current window. Used to conflate other elements than
+	 * the messages themselves, e.g. the {@link FutureSendTask} of a send
+	 * request with the key of its message, so the task of a replaced message
+	 * is cancelled by {@link Handler#replaced(Object)}.
+	 * 
+	 * @param key
+	 *            the key, e.g. from {@link #getKey(Object)}
+	 * @param element
+	 *            the element to add
+	 * @return the replaced element or null if no element with the same key
+	 *         was in the current window
+	 */
+	public E add(Object key, E element) {
+		E replaced;
+		synchronized (this) {
+			if (this.messages == null) {
+				final Map<Object, E> messages = this.messages = new LinkedHashMap<>();
+				this.window = this.scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (Conflator.this) {
+							// ignore if the window was already flushed
+							if (Conflator.this.messages == messages)
+								flush();
+						}
+					}
+				}, this.windowMs, TimeUnit.MILLISECONDS);
+			}
+			replaced = this.messages.put(key, element);
+			if (replaced != null)
+				this.conflated++;
+		}
+		if (replaced != null)
+			this.handler.replaced(replaced);
+		return replaced;
+	}
+
+	/**
+	 * Closes the current window and flushes its messages, if any
+	 */
+	public synchronized void flush() {
+		if (this.window != null) {
+			this.window.cancel(false);
+			this.window = null;
+		}
+		if (this.messages != null) {
+			List<E> batch = new ArrayList<>(this.messages.values());
+			this.messages = null;
+			this.handler.flush(batch);
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting in the current window
+	 */
+	public synchronized int size() {
+		return this.messages != null ? this.messages.size() : 0;
+	}
+
+	/**
+	 * @return the total number of messages replaced by a later message with
+	 *         the same key
+	 */
+	public synchronized long getConflated() {
+		return this.conflated;
+	}
+}
@@ -0,0 +1,264 @@
+package havis.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent connections, limited per key (e.g. per host). Used by
+ * transporters to keep connections alive between sends, see
+ * {@link Messenger#HTTP_KEEP_ALIVE_PROPERTY}. Only connections are reused, a
+ * reused connection saves the connect and any TLS handshake. The pool does
+ * not deal with TLS sessions, whether a newly opened connection resumes a
+ * session is up to the socket factory used by the {@link Factory}.
+ * 
+ * @param <K>
+ *            type of the key
+ * @param <C>
+ *            type of the connection
+ */
+public class ConnectionPool<K, C extends Closeable> implements Closeable {
+
+	/**
+	 * Factory to open connections
+	 * 
+	 * @param <K>
+	 *            type of the key
+	 * @param <C>
+	 *            type of the connection
+	 */
+	public interface Factory<K, C> {
+		/**
+		 * Open a new connection
+		 * 
+		 * @param key
+		 *            the key of the connection
+		 * @return the connection
+		 * @throws TransportException
+		 *             if the connection could not be opened
+		 */
+		C open(K key) throws TransportException;
+
+		/**
+		 * Check whether an idle connection can still be used before it is
+		 * handed out again, e.g. whether the server has closed it meanwhile.
+		 * Must not block.
+		 * 
+		 * @param connection
+		 *            the idle connection
+		 * @return true if the connection can be reused, false to close it
+		 */
+		default boolean isValid(C connection) {
+			return true;
+		}
+	}
+
+	private static class Idle<C> {
+		private final C connection;
+		private final long since;
+
+		private Idle(C connection, long since) {
+			this.connection = connection;
+			this.since = since;
+		}
+	}
+
+	private static class Host<C> {
+		private final Deque<Idle<C>> idle = new ArrayDeque<>();
+		private int open;
+	}
+
+	private final Factory<K, C> factory;
+	private final int maxConnectionsPerKey;
+	private final long idleTimeout;
+	private final Map<K, Host<C>> hosts = new HashMap<>();
+	private boolean closed;
+
+	/**
+	 * Creates a new connection pool
+	 * 
+	 * @param factory
+	 *            the factory to open connections
+	 * @param maxConnectionsPerKey
+	 *            the maximum number of open connections per key
+	 * @param idleTimeout
+	 *            the time in milliseconds after which an idle connection is
+	 *            closed by {@link #evict()} and no longer reused
+	 */
+	public ConnectionPool(Factory<K, C> factory, int maxConnectionsPerKey, long idleTimeout) {
+		if (maxConnectionsPerKey < 1)
+			throw new IllegalArgumentException("maxConnectionsPerKey must be greater than 0");
+		this.factory = factory;
+		this.maxConnectionsPerKey = maxConnectionsPerKey;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Acquire a connection, the most recently used idle connection is reused,
+	 * otherwise a new one is opened. Idle connections which exceeded the idle
+	 * timeout or are not valid according to {@link Factory#isValid(Object)}
+	 * are closed instead of reused. Waits for a connection to be released if
+	 * the maximum number of connections for the key is reached.
+	 * 
+	 * @param key
+	 *            the key of the connection
+	 * @param timeout
+	 *            the time in milliseconds to wait for a connection
+	 * @return the connection, which must be passed to
+	 *         {@link #release(Object, Closeable, boolean)} afterwards
+	 * @throws TransportException
+	 *             if no connection became available in time or opening failed
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting
+	 */
+	public C acquire(K key, long timeout) throws TransportException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Idle<C> idle;
+		while ((idle = poll(key, deadline)) != null) {
+			if (idle.since > System.currentTimeMillis() - this.idleTimeout && this.factory.isValid(idle.connection))
+				return idle.connection;
+			// stale, e.g. closed by the server while idle
+			close(idle.connection);
+			closed(key);
+		}
+		boolean opened = false;
+		try {
+			C connection = this.factory.open(key);
+			opened = true;
+			return connection;
+		} finally {
+			if (!opened)
+				closed(key);
+		}
+	}
+
+	/**
+	 * Take the most recently used idle connection or reserve a new one
+	 * 
+	 * @return the idle connection or null if a new connection may be opened
+	 */
+	private synchronized Idle<C> poll(K key, long deadline) throws TransportException, InterruptedException {
+		while (true) {
+			if (this.closed)
+				throw new TransportException("Connection pool is closed");
+			Host<C> host = this.hosts.get(key);
+			if (host == null)
+				this.hosts.put(key, host = new Host<C>());
+			Idle<C> idle = host.idle.pollFirst();
+			if (idle != null)
+				return idle;
+			if (host.open < this.maxConnectionsPerKey) {
+				host.open++;
+				return null;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new TransportConnectionException("No connection available for " + key);
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+
+	/**
+	 * Release a connection acquired by {@link #acquire(Object, long)}
+	 * 
+	 * @param key
+	 *            the key of the connection
+	 * @param connection
+	 *            the connection
+	 * @param reusable
+	 *            true to keep the connection for reuse, false to close it,
+	 *            e.g. after an error or if the server requested to close it
+	 */
+	public void release(K key, C connection, boolean reusable) {
+		synchronized (this) {
+			Host<C> host = this.hosts.get(key);
+			if (reusable && !this.closed && host != null) {
+				host.idle.addFirst(new Idle<C>(connection, System.currentTimeMillis()));
+				notifyAll();
+				return;
+			}
+		}
+		close(connection);
+		closed(key);
+	}
+
+	private synchronized void closed(K key) {
+		Host<C> host = this.hosts.get(key);
+		if (host != null) {
+			host.open--;
+			if (host.open == 0)
+				this.hosts.remove(key);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Close all connections which have been idle longer than the idle timeout.
+	 * Should be called periodically.
+	 */
+	public void evict() {
+		long expired = System.currentTimeMillis() - this.idleTimeout;
+		List<C> evicted = new ArrayList<>();
+		synchronized (this) {
+			for (Iterator<Host<C>> hosts = this.hosts.values().iterator(); hosts.hasNext();) {
+				Host<C> host = hosts.next();
+				// the least recently used connections are at the end
+				while (!host.idle.isEmpty() && host.idle.peekLast().since <= expired) {
+					evicted.add(host.idle.pollLast().connection);
+					host.open--;
+				}
+				if (host.open == 0)
+					hosts.remove();
+			}
+			notifyAll();
+		}
+		for (C connection : evicted)
+			close(connection);
+	}
+
+	/**
+	 * @param key
+	 *            the key
+	 * @return the number of open connections for the key
+	 */
+	public synchronized int getOpenConnections(K key) {
+		Host<C> host = this.hosts.get(key);
+		return host != null ? host.open : 0;
+	}
+
+	/**
+	 * Close all idle connections and the pool, connections in use are closed
+	 * when they are released
+	 */
+	@Override
+	public void close() {
+		List<C> idle = new ArrayList<>();
+		synchronized (this) {
+			this.closed = true;
+			for (Host<C> host : this.hosts.values()) {
+				for (Idle<C> i : host.idle)
+					idle.add(i.connection);
+				host.open -= host.idle.size();
+				host.idle.clear();
+			}
+			notifyAll();
+		}
+		for (C connection : idle)
+			close(connection);
+	}
+
+	private static void close(Closeable connection) {
+		try {
+			connection.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
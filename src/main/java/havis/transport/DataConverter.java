@@ -18,7 +18,10 @@ public interface DataConverter {
 	void init(Map<String, String> properties) throws ValidationException;
 
 	/**
-	 * Convert a message and write it to the specified writer
+	 * Convert a message and write it to the specified writer. Converters
+	 * should write typed rows (see {@link DataWriter#beginRow()}) using the
+	 * writer returned by {@link RowDataWriter#of(DataWriter)}, to avoid
+	 * allocating a list and boxing values for each row.
 	 * 
 	 * @param message
 	 *            the message to convert
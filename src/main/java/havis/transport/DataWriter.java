@@ -27,6 +27,120 @@ public interface DataWriter {
 	 */
 	void write(List<Object> values) throws TransportException;
 
+	/**
+	 * @return true if this writer supports writing typed rows without
+	 *         allocating a list per row, false otherwise. Use
+	 *         {@link RowDataWriter#of(DataWriter)} to get a writer supporting
+	 *         typed rows in any case.
+	 */
+	default boolean supportsRows() {
+		return false;
+	}
+
+	/**
+	 * Begin a new row, the values are written with the typed write methods
+	 * using the column indexes of the fields passed to {@link #prepare(List)}.
+	 * Columns which are not written are null.
+	 * 
+	 * @throws TransportException
+	 *             if typed rows are not supported
+	 */
+	default void beginRow() throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write a null value to the current row
+	 * 
+	 * @param column
+	 *            the column index
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeNull(int column) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write a long value to the current row
+	 * 
+	 * @param column
+	 *            the column index
+	 * @param value
+	 *            the value
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeLong(int column, long value) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write a double value to the current row
+	 * 
+	 * @param column
+	 *            the column index
+	 * @param value
+	 *            the value
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeDouble(int column, double value) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write a boolean value to the current row
+	 * 
+	 * @param column
+	 *            the column index
+	 * @param value
+	 *            the value
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeBoolean(int column, boolean value) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write a string value to the current row
+	 * 
+	 * @param column
+	 *            the column index
+	 * @param value
+	 *            the value, which is only valid during the call
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeString(int column, CharSequence value) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * Write any other value to the current row, e.g. a date
+	 * 
+	 * @param column
+	 *            the column index
+	 * @param value
+	 *            the value
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void writeObject(int column, Object value) throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
+	/**
+	 * End the current row
+	 * 
+	 * @throws TransportException
+	 *             if writing fails
+	 */
+	default void endRow() throws TransportException {
+		throw new TransportException("Typed rows are not supported");
+	}
+
 	/**
 	 * Commit the data
 	 * 
@@ -0,0 +1,198 @@
+package havis.transport;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded queue with a dedicated dispatch lane for the send tasks of a single
+ * subscription, set up with {@link Messenger#QUEUE_SIZE_PROPERTY} and
+ * {@link Messenger#QUEUE_OVERFLOW_POLICY_PROPERTY}. Tasks are run one after
+ * another on the executor, so a slow or unreachable endpoint occupies at most
+ * one thread of the executor at a time and its backlog stays in its own
+ * queue. A busy lane gives up its thread after a few tasks and is resubmitted
+ * to the executor, so lanes sharing an executor take turns. The lanes still
+ * share the threads of the executor, a task blocking on a slow endpoint holds
+ * its thread until the transport times out.
+ */
+public class DispatchLane {
+
+	private final static int MAX_TASKS_PER_RUN = 16;
+
+	private final Executor executor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+
+	private final Deque<FutureSendTask> queue = new ArrayDeque<>();
+	private boolean running;
+	private boolean closed;
+	private long dropped;
+	private long interrupted;
+
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Creates a new dispatch lane
+	 * 
+	 * @param executor
+	 *            the executor to run the tasks on
+	 * @param capacity
+	 *            the maximum number of queued tasks
+	 * @param policy
+	 *            the policy to apply when the queue is full
+	 */
+	public DispatchLane(Executor executor, int capacity, OverflowPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		this.executor = executor;
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Queue a task, applies the overflow policy if the queue is full
+	 * 
+	 * @param task
+	 *            the task to queue
+	 */
+	public void submit(FutureSendTask task) {
+		FutureSendTask dropped = null;
+		TransportException error = null;
+		boolean start = false;
+		synchronized (this) {
+			try {
+				while (!this.closed && this.queue.size() >= this.capacity) {
+					switch (this.policy) {
+					case BLOCK:
+						wait();
+						continue;
+					case DROP_OLDEST:
+						dropped = this.queue.poll();
+						break;
+					case DROP_NEWEST:
+						dropped = task;
+						break;
+					case FAIL:
+						error = new TransportException("Queue of subscription is full");
+						break;
+					}
+					break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = new TransportException("Interrupted while waiting for queue", e);
+				this.interrupted++;
+			}
+			if (error != null) {
+				if (this.policy == OverflowPolicy.FAIL)
+					this.dropped++;
+			} else if (this.closed) {
+				dropped = task;
+			} else {
+				if (dropped != null)
+					this.dropped++;
+				if (dropped != task)
+					this.queue.add(task);
+				if (!this.running)
+					start = this.running = true;
+			}
+		}
+		if (error != null)
+			task.setException(error);
+		if (dropped != null)
+			dropped.cancel(false);
+		if (start) {
+			try {
+				this.executor.execute(this.drain);
+			} catch (RejectedExecutionException e) {
+				// tasks queued meanwhile rely on this lane to be started
+				FutureSendTask[] tasks;
+				synchronized (this) {
+					this.running = false;
+					tasks = this.queue.toArray(new FutureSendTask[this.queue.size()]);
+					this.queue.clear();
+					notifyAll();
+				}
+				TransportException exception = new TransportException("Executor rejected the task", e);
+				for (FutureSendTask queued : tasks)
+					queued.setException(exception);
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+				FutureSendTask task;
+				synchronized (this) {
+					task = this.queue.poll();
+					if (task == null) {
+						this.running = false;
+						return;
+					}
+					notifyAll();
+				}
+				task.run();
+			}
+			// give other lanes on the executor a turn
+			try {
+				this.executor.execute(this.drain);
+				return;
+			} catch (RejectedExecutionException e) {
+				// keep draining on this thread
+			}
+		}
+	}
+
+	/**
+	 * @return the number of queued tasks
+	 */
+	public synchronized int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return the maximum number of queued tasks
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the number of tasks dropped or failed because the queue was
+	 *         full
+	 */
+	public synchronized long getDropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * @return the number of tasks failed because the sender was interrupted
+	 *         while waiting for space in the queue
+	 */
+	public synchronized long getInterrupted() {
+		return this.interrupted;
+	}
+
+	/**
+	 * Close the lane, cancels all queued tasks and any further submitted
+	 * tasks
+	 */
+	public void close() {
+		FutureSendTask[] tasks;
+		synchronized (this) {
+			this.closed = true;
+			tasks = this.queue.toArray(new FutureSendTask[this.queue.size()]);
+			this.queue.clear();
+			notifyAll();
+		}
+		for (FutureSendTask task : tasks)
+			task.cancel(false);
+	}
+}
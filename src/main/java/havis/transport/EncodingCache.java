@@ -0,0 +1,104 @@
+package havis.transport;
+
+import havis.transform.Transformer;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of serialized payloads for a single message, shared by all messengers
+ * during one fan-out of {@link SubscriberManager#send(Object)}. Messengers
+ * with the same MIME type, transformer, script and compression settings
+ * encode the message only once, all others reuse the payload. A new cache
+ * must be created for each message.
+ */
+public class EncodingCache {
+
+	/**
+	 * Encoder to serialize the message
+	 */
+	public interface Encoder {
+		/**
+		 * Transform and marshal the message
+		 * 
+		 * @return the serialized payload
+		 * @throws TransportException
+		 *             if transformation or marshalling fails
+		 */
+		byte[] encode() throws TransportException;
+	}
+
+	private final ConcurrentMap<Map<String, String>, FutureTask<byte[]>> payloads = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the settings which affect encoding, i.e. the MIME type, the
+	 *         compression and all transformer properties
+	 */
+	private static Map<String, String> key(Map<String, String> properties) {
+		Map<String, String> key = new TreeMap<>();
+		key.put(Messenger.MIMETYPE_PROPERTY, Messenger.DEFAULT_MIMETYPE);
+		if (properties != null) {
+			for (Entry<String, String> entry : properties.entrySet()) {
+				if (entry.getKey().equals(Messenger.MIMETYPE_PROPERTY) && entry.getValue() != null
+						|| entry.getKey().equals(Messenger.TRANSFORMER_PROPERTY) || entry.getKey().startsWith(Transformer.PREFIX)
+						|| entry.getKey().equals(Messenger.COMPRESSION_PROPERTY) || entry.getKey().equals(Messenger.COMPRESSION_LEVEL_PROPERTY))
+					key.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Get the payload for the specified settings, encodes the message if no
+	 * messenger with the same settings has encoded it yet. Concurrent calls
+	 * with the same settings wait for the first encoding to finish.
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @param encoder
+	 *            the encoder to use if the payload was not encoded yet
+	 * @return the serialized payload, which must not be modified
+	 * @throws TransportException
+	 *             if encoding fails
+	 */
+	public byte[] get(Map<String, String> properties, final Encoder encoder) throws TransportException {
+		Map<String, String> key = key(properties);
+		FutureTask<byte[]> payload = this.payloads.get(key);
+		if (payload == null) {
+			FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return encoder.encode();
+				}
+			});
+			payload = this.payloads.putIfAbsent(key, task);
+			if (payload == null) {
+				payload = task;
+				task.run();
+			}
+		}
+		try {
+			return payload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransportException("Interrupted while waiting for encoding", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TransportException)
+				throw (TransportException) e.getCause();
+			throw new TransportException("Unhandled error", e.getCause());
+		}
+	}
+
+	/**
+	 * @return the number of distinct payloads encoded
+	 */
+	public int size() {
+		return this.payloads.size();
+	}
+}
@@ -0,0 +1,114 @@
+package havis.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of compiled expressions per message class and expression. The
+ * compiled plans are shared, e.g. by all data converters created for the same
+ * {@link Messenger#DATA_CONVERTER_EXPRESSION_PROPERTY}, so each expression is
+ * only compiled once for each message class. The plans are attached to the
+ * message classes, so they do not keep the classes and their class loaders
+ * reachable.
+ * 
+ * @param <P>
+ *            type of the compiled plan, must be thread-safe
+ */
+public class ExpressionCache<P> {
+
+	/**
+	 * Compiler for expressions
+	 * 
+	 * @param <P>
+	 *            type of the compiled plan
+	 */
+	public interface Compiler<P> {
+		/**
+		 * Compile an expression
+		 * 
+		 * @param clazz
+		 *            the class to evaluate the expression on
+		 * @param expression
+		 *            the expression
+		 * @return the compiled plan
+		 * @throws ValidationException
+		 *             if the expression is not valid for the class
+		 */
+		P compile(Class<?> clazz, String expression) throws ValidationException;
+	}
+
+	private final Compiler<P> compiler;
+	private final ClassCache<ConcurrentMap<String, P>> plans = new ClassCache<>();
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param compiler
+	 *            the compiler for expressions which are not cached yet
+	 */
+	public ExpressionCache(Compiler<P> compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Get the compiled plan, the expression is compiled if it is not cached
+	 * yet
+	 * 
+	 * @param clazz
+	 *            the class to evaluate the expression on
+	 * @param expression
+	 *            the expression
+	 * @return the compiled plan
+	 * @throws ValidationException
+	 *             if the expression is not valid for the class
+	 */
+	public P get(Class<?> clazz, String expression) throws ValidationException {
+		ConcurrentMap<String, P> plans = this.plans.get(clazz);
+		if (plans == null) {
+			plans = new ConcurrentHashMap<>();
+			ConcurrentMap<String, P> existing = this.plans.putIfAbsent(clazz, plans);
+			if (existing != null)
+				plans = existing;
+		}
+		P plan = plans.get(expression);
+		if (plan == null) {
+			// compiling twice in a race is harmless, the first plan wins
+			P compiled = this.compiler.compile(clazz, expression);
+			plan = plans.putIfAbsent(expression, compiled);
+			if (plan == null)
+				plan = compiled;
+		}
+		return plan;
+	}
+
+	/**
+	 * @return the number of cached plans
+	 */
+	public int size() {
+		int size = 0;
+		for (Class<?> clazz : this.plans.classes()) {
+			ConcurrentMap<String, P> plans = this.plans.get(clazz);
+			if (plans != null)
+				size += plans.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Remove the cached plans of a class, e.g. when the bundle providing the
+	 * class is stopped
+	 * 
+	 * @param clazz
+	 *            the class
+	 */
+	public void remove(Class<?> clazz) {
+		this.plans.remove(clazz);
+	}
+
+	/**
+	 * Remove all cached plans, e.g. when classes are reloaded
+	 */
+	public void clear() {
+		this.plans.clear();
+	}
+}
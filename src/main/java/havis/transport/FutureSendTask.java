@@ -1,7 +1,10 @@
 package havis.transport;
 
+import java.util.Collection;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
@@ -19,11 +22,17 @@ import java.util.concurrent.TimeoutException;
  * 
  * The first exception will always be logged by the messenger, even if
  * {@link FutureSendTask#get()} is never called.
+ * 
+ * To wait for completion without blocking a thread, a
+ * {@link CompletableFuture} view of the sending attempt can be retrieved by
+ * calling {@link FutureSendTask#toCompletableFuture()}.
  */
 public class FutureSendTask extends FutureTask<Void> {
 
 	private CompletionHandler completionHandler;
 
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
 	public FutureSendTask(Callable<Void> callable, CompletionHandler completionHandler) {
 		super(callable);
 		this.completionHandler = completionHandler;
@@ -86,6 +95,52 @@ public class FutureSendTask extends FutureTask<Void> {
 		}
 	}
 
+	/**
+	 * Returns a new {@link CompletableFuture} which is completed when sending
+	 * is complete. If transport failed, it is completed exceptionally with the
+	 * {@link TransportException}. If sending was cancelled, it is cancelled.
+	 * Completing or cancelling the returned future does not affect sending.
+	 * 
+	 * @return the {@link CompletableFuture} to chain, combine and time out
+	 *         follow-up work without blocking
+	 */
+	public CompletableFuture<Void> toCompletableFuture() {
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		// a dependent stage would wrap a cancellation into a CompletionException
+		this.completion.whenComplete((v, t) -> {
+			if (t != null)
+				future.completeExceptionally(t);
+			else
+				future.complete(v);
+		});
+		return future;
+	}
+
+	/**
+	 * Returns a {@link CompletableFuture} which is completed when all of the
+	 * specified sending attempts are complete, e.g. the values of the map
+	 * returned by {@link SubscriberManager#send(Object)}. It is completed
+	 * exceptionally if any of the sending attempts failed.
+	 * 
+	 * @param tasks
+	 *            the sending attempts
+	 * @return the {@link CompletableFuture} of all sending attempts
+	 */
+	public static CompletableFuture<Void> allOf(Collection<FutureSendTask> tasks) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+		int i = 0;
+		for (FutureSendTask task : tasks)
+			futures[i++] = task.completion;
+		return CompletableFuture.allOf(futures);
+	}
+
+	/**
+	 * @return the {@link CompletionStage} of this sending attempt
+	 */
+	public CompletionStage<Void> toCompletionStage() {
+		return toCompletableFuture();
+	}
+
 	@Override
 	protected void set(Void v) {
 		super.set(v);
@@ -99,4 +154,26 @@ public class FutureSendTask extends FutureTask<Void> {
 		if (this.completionHandler != null)
 			this.completionHandler.onError(t);
 	}
+
+	/**
+	 * Completes the {@link CompletableFuture} view from the final state of
+	 * the task, so both always agree even if completion and cancellation race
+	 */
+	@Override
+	protected void done() {
+		if (isCancelled()) {
+			this.completion.cancel(false);
+			return;
+		}
+		try {
+			super.get();
+			this.completion.complete(null);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			this.completion.completeExceptionally(t instanceof TransportException ? t : new TransportException("Unhandled error", t));
+		} catch (InterruptedException | CancellationException e) {
+			// not possible, the task is done and was not cancelled
+			this.completion.completeExceptionally(e);
+		}
+	}
 }
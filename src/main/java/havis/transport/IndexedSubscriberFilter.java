@@ -0,0 +1,116 @@
+package havis.transport;
+
+import java.util.Map;
+
+/**
+ * Declarative filter for subscriptions, matching the subscription ID or a
+ * subscription property by equality or prefix. In contrast to other
+ * {@link SubscriberFilter}s, it can be evaluated using the index of a
+ * {@link SubscriberRegistry.Snapshot}, so only the matching subscriptions are
+ * visited when sending.
+ */
+public class IndexedSubscriberFilter implements SubscriberFilter {
+
+	private final String key;
+	private final String value;
+	private final boolean prefix;
+
+	private IndexedSubscriberFilter(String key, String value, boolean prefix) {
+		if (value == null)
+			throw new IllegalArgumentException("value must not be null");
+		this.key = key;
+		this.value = value;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * @param id
+	 *            the subscription ID
+	 * @return a filter accepting the subscription with the specified ID
+	 */
+	public static IndexedSubscriberFilter id(String id) {
+		return new IndexedSubscriberFilter(null, id, false);
+	}
+
+	/**
+	 * @param prefix
+	 *            the prefix of the subscription ID
+	 * @return a filter accepting all subscriptions with an ID starting with
+	 *         the specified prefix
+	 */
+	public static IndexedSubscriberFilter idPrefix(String prefix) {
+		return new IndexedSubscriberFilter(null, prefix, true);
+	}
+
+	/**
+	 * @param key
+	 *            the property key
+	 * @param value
+	 *            the property value
+	 * @return a filter accepting all subscriptions with the specified property
+	 *         value
+	 */
+	public static IndexedSubscriberFilter property(String key, String value) {
+		if (key == null)
+			throw new IllegalArgumentException("key must not be null");
+		return new IndexedSubscriberFilter(key, value, false);
+	}
+
+	/**
+	 * @param key
+	 *            the property key
+	 * @param prefix
+	 *            the prefix of the property value
+	 * @return a filter accepting all subscriptions with a value of the
+	 *         specified property starting with the specified prefix
+	 */
+	public static IndexedSubscriberFilter propertyPrefix(String key, String prefix) {
+		if (key == null)
+			throw new IllegalArgumentException("key must not be null");
+		return new IndexedSubscriberFilter(key, prefix, true);
+	}
+
+	/**
+	 * @return the property key or null if the ID is matched
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return the value or prefix to match
+	 */
+	public String getValue() {
+		return this.value;
+	}
+
+	/**
+	 * @return true if the value is a prefix, false if it must match exactly
+	 */
+	public boolean isPrefix() {
+		return this.prefix;
+	}
+
+	/**
+	 * @param subscription
+	 *            the subscription
+	 * @return the ID or the property value the filter applies to
+	 */
+	String valueOf(Subscription subscription) {
+		if (this.key == null)
+			return subscription.getId();
+		Map<String, String> properties = subscription.getProperties();
+		return properties != null ? properties.get(this.key) : null;
+	}
+
+	@Override
+	public boolean accept(Subscription subscription) {
+		String value = valueOf(subscription);
+		return value != null && (this.prefix ? value.startsWith(this.value) : value.equals(this.value));
+	}
+
+	@Override
+	public String toString() {
+		return "IndexedSubscriberFilter [key=" + key + ", value=" + value + ", prefix=" + prefix + "]";
+	}
+}
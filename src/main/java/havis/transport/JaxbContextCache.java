@@ -0,0 +1,77 @@
+package havis.transport;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Cache of {@link JAXBContext} instances per message class. Creating a
+ * context is expensive, while a context is thread-safe and can be shared by
+ * all messengers of the same message class. Contexts and pools are attached
+ * to the message classes, so they do not keep the classes and their class
+ * loaders reachable.
+ */
+public class JaxbContextCache {
+
+	private final static ClassCache<JAXBContext> contexts = new ClassCache<>();
+	private final static ClassCache<MarshallerPool> pools = new ClassCache<>();
+
+	private JaxbContextCache() {
+	}
+
+	/**
+	 * Get the context for the specified class, creates it on first use
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @return the shared context
+	 * @throws ValidationException
+	 *             if the context could not be created
+	 */
+	public static JAXBContext getContext(Class<?> clazz) throws ValidationException {
+		JAXBContext context = contexts.get(clazz);
+		if (context == null) {
+			try {
+				context = JAXBContext.newInstance(clazz);
+			} catch (JAXBException e) {
+				throw new ValidationException("Failed to create JAXB context for " + clazz.getName(), e);
+			}
+			JAXBContext existing = contexts.putIfAbsent(clazz, context);
+			if (existing != null)
+				context = existing;
+		}
+		return context;
+	}
+
+	/**
+	 * Get the marshaller pool for the specified class, creates it on first
+	 * use
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @return the shared pool
+	 * @throws ValidationException
+	 *             if the context could not be created
+	 */
+	public static MarshallerPool getPool(Class<?> clazz) throws ValidationException {
+		MarshallerPool pool = pools.get(clazz);
+		if (pool == null) {
+			pool = new MarshallerPool(getContext(clazz));
+			MarshallerPool existing = pools.putIfAbsent(clazz, pool);
+			if (existing != null)
+				pool = existing;
+		}
+		return pool;
+	}
+
+	/**
+	 * Remove the context and pool of a class, e.g. when the bundle providing
+	 * the class is stopped
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 */
+	public static void remove(Class<?> clazz) {
+		pools.remove(clazz);
+		contexts.remove(clazz);
+	}
+}
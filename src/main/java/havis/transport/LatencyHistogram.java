@@ -0,0 +1,98 @@
+package havis.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with power of two microsecond buckets,
+ * from below 1 microsecond up to above 2^30 microseconds (about 18 minutes).
+ * Negative latencies, e.g. caused by clock adjustments, are recorded as 0.
+ */
+public class LatencyHistogram {
+
+	private final static int BUCKETS = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a latency
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		this.counts.incrementAndGet(bucket);
+		this.count.increment();
+		this.total.add(nanos);
+		this.max.accumulate(micros);
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return the mean latency in microseconds or 0 if nothing was recorded
+	 */
+	public double getMeanMicros() {
+		long count = this.count.sum();
+		return count > 0 ? this.total.sum() / 1000.0 / count : 0;
+	}
+
+	/**
+	 * @return the maximum latency in microseconds or 0 if nothing was recorded
+	 */
+	public long getMaxMicros() {
+		return this.max.get();
+	}
+
+	/**
+	 * Get the approximate latency at the specified percentile
+	 * 
+	 * @param percentile
+	 *            the percentile between 0 and 100, e.g. 99
+	 * @return the upper bound of the bucket containing the percentile in
+	 *         microseconds, the maximum latency if the percentile is in the
+	 *         last bucket, which has no upper bound, or 0 if nothing was
+	 *         recorded
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] counts = getCounts();
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+		long sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			sum += counts[i];
+			if (sum >= Math.max(1, rank))
+				return i == 0 ? 0 : i == counts.length - 1 ? getMaxMicros() : 1L << i;
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * @return the count of each bucket, bucket 0 contains latencies below
+	 *         1 microsecond, bucket i latencies from 2^(i-1) to below 2^i
+	 *         microseconds
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = this.counts.get(i);
+		return counts;
+	}
+}
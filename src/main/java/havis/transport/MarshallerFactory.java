@@ -0,0 +1,20 @@
+package havis.transport;
+
+/**
+ * Factory for marshallers of a MIME type, registered in a
+ * {@link CodecRegistry}
+ */
+public interface MarshallerFactory {
+
+	/**
+	 * Create a marshaller for the specified message class. The marshaller is
+	 * cached and shared, so it must be thread-safe.
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @return the marshaller
+	 * @throws ValidationException
+	 *             if the class is not supported
+	 */
+	<T> Marshaller<T> create(Class<T> clazz) throws ValidationException;
+}
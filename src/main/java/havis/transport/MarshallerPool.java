@@ -0,0 +1,328 @@
+package havis.transport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.PropertyException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.bind.attachment.AttachmentMarshaller;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.validation.Schema;
+
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Pool of JAXB marshallers and unmarshallers of one {@link JAXBContext}.
+ * JAXB marshallers are not thread-safe, the pool hands out one instance per
+ * caller instead of serializing all calls on a single instance or creating a
+ * new one for each message. Use {@link JaxbContextCache#getPool(Class)} to
+ * get the shared pool of a message class.
+ */
+public class MarshallerPool {
+
+	/**
+	 * Marshaller borrowed from the pool, returns to the pool on
+	 * {@link #close()} and must not be used afterwards. The configuration
+	 * cannot be changed, as the marshaller is reused by other callers, set
+	 * properties on the pool instead. Setters fail with a
+	 * {@link PropertyException}, or an {@link IllegalStateException} caused by
+	 * one where the API does not allow checked exceptions. A marshaller which
+	 * failed is discarded on {@link #close()}, as it may be left in an
+	 * inconsistent state.
+	 */
+	public static class PooledMarshaller extends DelegatingMarshaller implements Closeable {
+
+		private final MarshallerPool pool;
+		private boolean closed;
+		private boolean failed;
+
+		private PooledMarshaller(MarshallerPool pool, javax.xml.bind.Marshaller delegate) {
+			super(delegate);
+			this.pool = pool;
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, Result result) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, result);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, OutputStream os) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, os);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, File output) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, output);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, Writer writer) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, writer);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, ContentHandler handler) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, handler);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, Node node) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, node);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, XMLStreamWriter writer) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, writer);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void marshal(Object jaxbElement, XMLEventWriter writer) throws JAXBException {
+			checkOpen();
+			try {
+				super.marshal(jaxbElement, writer);
+			} catch (JAXBException | RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void setProperty(String name, Object value) throws PropertyException {
+			throw new PropertyException("Properties of a pooled marshaller must be set on the pool");
+		}
+
+		@Override
+		public void setEventHandler(ValidationEventHandler handler) throws JAXBException {
+			throw unsupported();
+		}
+
+		@Override
+		public void setAdapter(@SuppressWarnings("rawtypes") XmlAdapter adapter) {
+			throw new IllegalStateException(unsupported());
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public <A extends XmlAdapter> void setAdapter(Class<A> type, A adapter) {
+			throw new IllegalStateException(unsupported());
+		}
+
+		@Override
+		public void setAttachmentMarshaller(AttachmentMarshaller am) {
+			throw new IllegalStateException(unsupported());
+		}
+
+		@Override
+		public void setSchema(Schema schema) {
+			throw new IllegalStateException(unsupported());
+		}
+
+		@Override
+		public void setListener(Listener listener) {
+			throw new IllegalStateException(unsupported());
+		}
+
+		private static PropertyException unsupported() {
+			return new PropertyException("Configuration of a pooled marshaller cannot be changed");
+		}
+
+		private void checkOpen() {
+			if (this.closed)
+				throw new IllegalStateException("Marshaller has been returned to the pool");
+		}
+
+		/**
+		 * Return the marshaller to the pool, it must not be used afterwards.
+		 * The marshaller is discarded if it failed.
+		 */
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				if (!this.failed)
+					this.pool.release(this.pool.marshallers, this.delegate);
+			}
+		}
+	}
+
+	private final static int DEFAULT_MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final JAXBContext context;
+	private final Map<String, Object> properties;
+	private final int maxIdle;
+	private final Queue<javax.xml.bind.Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+	private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idle = new AtomicInteger();
+
+	/**
+	 * Creates a new pool with twice the number of processors as maximum
+	 * number of idle instances
+	 * 
+	 * @param context
+	 *            the context to create marshallers from
+	 */
+	public MarshallerPool(JAXBContext context) {
+		this(context, Collections.<String, Object> emptyMap(), DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * Creates a new pool
+	 * 
+	 * @param context
+	 *            the context to create marshallers from
+	 * @param properties
+	 *            the properties to set on each marshaller, e.g.
+	 *            {@link javax.xml.bind.Marshaller#JAXB_FORMATTED_OUTPUT}
+	 * @param maxIdle
+	 *            the maximum number of idle instances kept in the pool,
+	 *            further instances are discarded on release
+	 */
+	public MarshallerPool(JAXBContext context, Map<String, Object> properties, int maxIdle) {
+		if (maxIdle < 0)
+			throw new IllegalArgumentException("maxIdle must not be negative");
+		this.context = context;
+		this.properties = properties;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return the context of the pool
+	 */
+	public JAXBContext getContext() {
+		return this.context;
+	}
+
+	/**
+	 * Borrow a marshaller, which must be closed after use, i.e. in a
+	 * try-with-resources statement
+	 * 
+	 * @return the marshaller
+	 * @throws TransportException
+	 *             if a new marshaller could not be created
+	 */
+	public PooledMarshaller borrow() throws TransportException {
+		javax.xml.bind.Marshaller marshaller = poll(this.marshallers);
+		if (marshaller == null) {
+			try {
+				marshaller = this.context.createMarshaller();
+				for (Entry<String, Object> property : this.properties.entrySet())
+					marshaller.setProperty(property.getKey(), property.getValue());
+			} catch (JAXBException e) {
+				throw new TransportException("Failed to create marshaller", e);
+			}
+		}
+		return new PooledMarshaller(this, marshaller);
+	}
+
+	/**
+	 * Borrow an unmarshaller, which must be passed to
+	 * {@link #release(Unmarshaller)} after use
+	 * 
+	 * @return the unmarshaller
+	 * @throws TransportException
+	 *             if a new unmarshaller could not be created
+	 */
+	public Unmarshaller borrowUnmarshaller() throws TransportException {
+		Unmarshaller unmarshaller = poll(this.unmarshallers);
+		if (unmarshaller == null) {
+			try {
+				unmarshaller = this.context.createUnmarshaller();
+			} catch (JAXBException e) {
+				throw new TransportException("Failed to create unmarshaller", e);
+			}
+		}
+		return unmarshaller;
+	}
+
+	/**
+	 * Return an unmarshaller borrowed by {@link #borrowUnmarshaller()}. An
+	 * unmarshaller which failed or whose configuration was changed must not be
+	 * returned, it is simply dropped instead.
+	 * 
+	 * @param unmarshaller
+	 *            the unmarshaller, must not be used afterwards
+	 */
+	public void release(Unmarshaller unmarshaller) {
+		release(this.unmarshallers, unmarshaller);
+	}
+
+	private <E> E poll(Queue<E> queue) {
+		E instance = queue.poll();
+		if (instance != null)
+			this.idle.decrementAndGet();
+		return instance;
+	}
+
+	private <E> void release(Queue<E> queue, E instance) {
+		if (this.idle.incrementAndGet() > this.maxIdle) {
+			this.idle.decrementAndGet();
+			return;
+		}
+		queue.offer(instance);
+	}
+
+	/**
+	 * @return the number of idle marshallers and unmarshallers in the pool
+	 */
+	public int getIdle() {
+		return this.idle.get();
+	}
+}
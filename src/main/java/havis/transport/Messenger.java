@@ -35,7 +35,8 @@ public interface Messenger<T> {
 
 	/**
 	 * Default MIME type, used when no MIME type was set with
-	 * {@link Messenger#MIMETYPE_PROPERTY}
+	 * {@link Messenger#MIMETYPE_PROPERTY}. Messages are marshalled with the
+	 * pooled {@link XmlMarshaller} of the default {@link CodecRegistry}.
 	 */
 	final static String DEFAULT_MIMETYPE = "text/xml";
 
@@ -44,6 +45,35 @@ public interface Messenger<T> {
 	 */
 	final static String BINARY_MIMETYPE = "application/octet-stream";
 
+	/**
+	 * MIME type for the compact binary encoding of messages, which is derived
+	 * from the fields of the message class (see {@link CompactBinaryMarshaller}
+	 * and {@link CodecRegistry})
+	 */
+	final static String COMPACT_MIMETYPE = "application/vnd.havis.compact";
+
+	/**
+	 * Compression property, set to compress marshalled messages before
+	 * transport, e.g. 'gzip' or 'deflate' (see {@link Compression}). HTTP
+	 * transport sets the Content-Encoding header accordingly.
+	 */
+	final static String COMPRESSION_PROPERTY = Transporter.PREFIX + "Compression";
+
+	/**
+	 * Compression level property, set to choose the compression level from 0
+	 * (no compression) to 9 (best compression)
+	 */
+	final static String COMPRESSION_LEVEL_PROPERTY = Transporter.PREFIX + "Compression.Level";
+
+	/**
+	 * Streaming property, set to marshal XML messages directly into the
+	 * request body or socket output stream instead of building the payload in
+	 * memory first (true/false). HTTP transport uses chunked transfer
+	 * encoding, see {@link Messenger#HTTP_CHUNK_SIZE_PROPERTY}. Streamed
+	 * payloads are not shared through an {@link EncodingCache}.
+	 */
+	final static String STREAMING_PROPERTY = Transporter.PREFIX + "Streaming";
+
 	/**
 	 * Sets the message delivering error resend repeat period
 	 */
@@ -54,12 +84,171 @@ public interface Messenger<T> {
 	 */
 	final static String RESEND_QUEUE_SIZE_PROPERTY = Transporter.PREFIX + "ResendQueueSize";
 
+	/**
+	 * Sets the message delivering error resend queue type, e.g.
+	 * {@link Messenger#PERSISTENT_RESEND_QUEUE}. Messages are kept in memory
+	 * if not set.
+	 */
+	final static String RESEND_QUEUE_TYPE_PROPERTY = Transporter.PREFIX + "ResendQueueType";
+
+	/**
+	 * Persistent resend queue type, set with
+	 * {@link Messenger#RESEND_QUEUE_TYPE_PROPERTY} to keep undelivered messages
+	 * in a journal on disk (see {@link ResendJournal}), which survives restarts
+	 */
+	final static String PERSISTENT_RESEND_QUEUE = "persistent";
+
+	/**
+	 * Sets the directory of the persistent resend queue
+	 */
+	final static String RESEND_QUEUE_DIRECTORY_PROPERTY = Transporter.PREFIX + "ResendQueueDirectory";
+
+	/**
+	 * Sets the size in bytes of each segment file of the persistent resend
+	 * queue, which also limits the size of a single marshalled message
+	 */
+	final static String RESEND_QUEUE_SEGMENT_SIZE_PROPERTY = Transporter.PREFIX + "ResendQueueSegmentSize";
+
+	/**
+	 * Batch size property, set to choose the maximum number of messages which
+	 * are accumulated and handed over to the transporter in a single
+	 * {@link Transporter#sendBatch(java.util.List)} call. Batching is
+	 * disabled if not set or less than 2.
+	 */
+	final static String BATCH_MAX_SIZE_PROPERTY = Transporter.PREFIX + "Batch.MaxSize";
+
+	/**
+	 * Batch linger property, set to choose the time in milliseconds to wait
+	 * for further messages before an incomplete batch is sent
+	 */
+	final static String BATCH_LINGER_MS_PROPERTY = Transporter.PREFIX + "Batch.LingerMs";
+
+	/**
+	 * Queue size property, set to queue messages of this subscription in a
+	 * bounded queue of the given size, which is dispatched independently of
+	 * other subscriptions (see {@link DispatchLane})
+	 */
+	final static String QUEUE_SIZE_PROPERTY = Transporter.PREFIX + "Queue.Size";
+
+	/**
+	 * Queue overflow policy property, set to choose the
+	 * {@link OverflowPolicy} applied when the queue is full, e.g. 'block' or
+	 * 'drop-oldest'
+	 */
+	final static String QUEUE_OVERFLOW_POLICY_PROPERTY = Transporter.PREFIX + "Queue.OverflowPolicy";
+
+	/**
+	 * Conflation window property, set to choose the time in milliseconds
+	 * during which messages of this subscription are conflated, i.e. only the
+	 * latest message per key is kept and sent in one batch when the window
+	 * closes (see {@link Conflator}). Conflation is disabled if not set.
+	 */
+	final static String CONFLATION_WINDOW_MS_PROPERTY = Transporter.PREFIX + "Conflation.WindowMs";
+
+	/**
+	 * Conflation key property, set to the dotted property path of the message
+	 * identifying messages to conflate, e.g. 'epc'. If not set, only the
+	 * latest message of each window is kept.
+	 */
+	final static String CONFLATION_KEY_PROPERTY = Transporter.PREFIX + "Conflation.Key";
+
+	/**
+	 * Execution property, set to choose how sends are executed, e.g.
+	 * {@link Messenger#VIRTUAL_EXECUTION}. Sends are executed on a thread pool
+	 * if not set.
+	 */
+	final static String EXECUTION_PROPERTY = Transporter.PREFIX + "Execution";
+
+	/**
+	 * Virtual thread execution, set with {@link Messenger#EXECUTION_PROPERTY}
+	 * to run each send on a virtual thread (see {@link SendExecutors}),
+	 * requires a Java runtime supporting virtual threads
+	 */
+	final static String VIRTUAL_EXECUTION = "virtual";
+
+	/**
+	 * Max concurrency property, set to limit the number of concurrent sends
+	 * to the endpoint of the messenger, the limit is shared by all messengers
+	 * with the same URI and limit
+	 */
+	final static String MAX_CONCURRENCY_PROPERTY = Transporter.PREFIX + "MaxConcurrency";
+
+	/**
+	 * Max concurrency queue size property, set to choose the maximum number of
+	 * sends waiting for the limit of {@link Messenger#MAX_CONCURRENCY_PROPERTY},
+	 * further sends are rejected. Defaults to 10000.
+	 */
+	final static String MAX_CONCURRENCY_QUEUE_SIZE_PROPERTY = Transporter.PREFIX + "MaxConcurrency.QueueSize";
+
+	/**
+	 * Circuit breaker property, set to choose the number of consecutive
+	 * failures after which sends fail fast or go to the resend queue until a
+	 * probe send succeeds (see {@link CircuitBreaker})
+	 */
+	final static String CIRCUIT_BREAKER_FAILURE_THRESHOLD_PROPERTY = Transporter.PREFIX + "CircuitBreaker.FailureThreshold";
+
+	/**
+	 * Circuit breaker property, set to choose the time in milliseconds after
+	 * which the first probe send is allowed
+	 */
+	final static String CIRCUIT_BREAKER_INITIAL_BACKOFF_PROPERTY = Transporter.PREFIX + "CircuitBreaker.InitialBackoff";
+
+	/**
+	 * Circuit breaker property, set to choose the maximum time in
+	 * milliseconds between probe sends, the time doubles with each failed
+	 * probe
+	 */
+	final static String CIRCUIT_BREAKER_MAX_BACKOFF_PROPERTY = Transporter.PREFIX + "CircuitBreaker.MaxBackoff";
+
+	/**
+	 * Circuit breaker property, set to choose the time in milliseconds after
+	 * which another probe send is allowed if the result of the probe has not
+	 * been reported, must not be less than the transport timeout
+	 */
+	final static String CIRCUIT_BREAKER_PROBE_TIMEOUT_PROPERTY = Transporter.PREFIX + "CircuitBreaker.ProbeTimeout";
+
+	/**
+	 * Shared transporter property, set to share one transporter and its
+	 * connection with all other messengers having the same URI, MIME type and
+	 * transport properties (true/false), see {@link TransporterRegistry}
+	 */
+	final static String SHARED_TRANSPORTER_PROPERTY = Transporter.PREFIX + "Shared";
+
 	/**
 	 * TCP timeout property, set to choose the timeout in milliseconds to
 	 * establish a TCP connection
 	 */
 	final static String TCP_TIMEOUT_PROPERTY = Transporter.PREFIX + "TCP.Timeout";
 
+	/**
+	 * TCP non-blocking property, set to send over a non-blocking connection
+	 * served by a shared selector loop instead of a blocking socket per
+	 * messenger (true/false), see {@link NioConnection}. The socket factory is
+	 * not used for non-blocking connections.
+	 */
+	final static String TCP_NON_BLOCKING_PROPERTY = Transporter.PREFIX + "TCP.NonBlocking";
+
+	/**
+	 * TCP I/O threads property, set to choose the number of selector loop
+	 * threads serving all non-blocking TCP connections, see
+	 * {@link SelectorLoop#get(Map)}
+	 */
+	final static String TCP_IO_THREADS_PROPERTY = Transporter.PREFIX + "TCP.IoThreads";
+
+	/**
+	 * TCP max queued writes property, set to choose the maximum number of
+	 * writes waiting on a non-blocking connection, further writes fail
+	 * immediately. Defaults to 10000.
+	 */
+	final static String TCP_MAX_QUEUED_WRITES_PROPERTY = Transporter.PREFIX + "TCP.MaxQueuedWrites";
+
+	/**
+	 * TCP write timeout property, set to choose the time in milliseconds a
+	 * write may wait on a non-blocking connection before it fails, e.g. while
+	 * the connection is down. Defaults to 60000, 0 to wait indefinitely.
+	 */
+	final static String TCP_WRITE_TIMEOUT_PROPERTY = Transporter.PREFIX + "TCP.WriteTimeout";
+
 	/**
 	 * MQTT timeout property, set to choose the timeout in milliseconds to
 	 * establish a MQTT connection
@@ -95,6 +284,36 @@ public interface Messenger<T> {
 	 */
 	final static String HTTP_METHOD_PROPERTY = Transporter.PREFIX + "HTTP.Method";
 
+	/**
+	 * HTTP keep alive property, set to keep connections open and reuse them
+	 * for subsequent requests (true/false). Pooled connections are created
+	 * with the socket factory of the messenger. An idle connection is only
+	 * reused if it has been idle for less than
+	 * {@link Messenger#HTTP_IDLE_TIMEOUT_PROPERTY} and has not been closed by
+	 * the server meanwhile, otherwise a new connection is opened.
+	 */
+	final static String HTTP_KEEP_ALIVE_PROPERTY = Transporter.PREFIX + "HTTP.KeepAlive";
+
+	/**
+	 * HTTP max connections property, set to choose the maximum number of
+	 * pooled connections per host when {@link Messenger#HTTP_KEEP_ALIVE_PROPERTY}
+	 * is set
+	 */
+	final static String HTTP_MAX_CONNECTIONS_PER_HOST_PROPERTY = Transporter.PREFIX + "HTTP.MaxConnectionsPerHost";
+
+	/**
+	 * HTTP idle timeout property, set to choose the time in milliseconds after
+	 * which an unused pooled connection is closed
+	 */
+	final static String HTTP_IDLE_TIMEOUT_PROPERTY = Transporter.PREFIX + "HTTP.IdleTimeout";
+
+	/**
+	 * HTTP chunk size property, set to choose the size in bytes of the chunks
+	 * of a request body sent with chunked transfer encoding when
+	 * {@link Messenger#STREAMING_PROPERTY} is set
+	 */
+	final static String HTTP_CHUNK_SIZE_PROPERTY = Transporter.PREFIX + "HTTP.ChunkSize";
+
 	/**
 	 * JDBC table name property, set to define which database table to insert
 	 * into.
@@ -107,6 +326,19 @@ public interface Messenger<T> {
 	 */
 	final static String JDBC_KEEP_CONNECTION_PROPERTY = Transporter.PREFIX + "JDBC.KeepConnection";
 
+	/**
+	 * JDBC batch size property, set to insert rows in batches of the given
+	 * size, rows of multiple messages are gathered and committed together (see
+	 * {@link BatchingDataWriter})
+	 */
+	final static String JDBC_BATCH_SIZE_PROPERTY = Transporter.PREFIX + "JDBC.BatchSize";
+
+	/**
+	 * JDBC commit interval property, set to choose the maximum time in
+	 * milliseconds rows are held back before an incomplete batch is committed
+	 */
+	final static String JDBC_COMMIT_INTERVAL_PROPERTY = Transporter.PREFIX + "JDBC.CommitIntervalMs";
+
 	/**
 	 * JDBC initial statement property, set to i.e. create the database table
 	 */
@@ -130,13 +362,24 @@ public interface Messenger<T> {
 
 	/**
 	 * JavaScript property, set to define the script to run in a JavaScript
-	 * transformation
+	 * transformation. Identical scripts are compiled only once and shared by
+	 * all messengers (see {@link ScriptCache}).
 	 */
 	final static String JS_SCRIPT_PROPERTY = Transformer.PREFIX + JS_TRANSFORMER + ".Script";
 
+	/**
+	 * Transformer workers property, set to choose the number of threads which
+	 * transform messages in parallel to transport (see
+	 * {@link SendExecutors#transformers(Map)}). Messages are transformed on
+	 * the sending thread if not set or 0.
+	 */
+	final static String TRANSFORMER_WORKERS_PROPERTY = Transporter.PREFIX + "Transformer.Workers";
+
 	/**
 	 * Data converter property, set to define the expression to use when
-	 * converting complex objects to flat data
+	 * converting complex objects to flat data. Expressions are compiled once
+	 * per message class and shared by all messengers (see
+	 * {@link ExpressionCache} and {@link PropertyAccessor}).
 	 */
 	final static String DATA_CONVERTER_EXPRESSION_PROPERTY = Transporter.PREFIX + "DataConverter.Expression";
 
@@ -213,10 +456,31 @@ public interface Messenger<T> {
 	 * @param message
 	 *            The message to send
 	 * @return the {@link FutureSendTask} to wait for sending to finish and
-	 *         handle exceptions.
+	 *         handle exceptions. Use
+	 *         {@link FutureSendTask#toCompletableFuture()} to continue without
+	 *         blocking.
 	 */
 	FutureSendTask send(T message);
 
+	/**
+	 * Asynchronously send a message as part of a fan-out to multiple
+	 * messengers. Messengers which transform and marshal messages obtain the
+	 * payload from the specified cache, so the message is only encoded once
+	 * for all messengers with the same settings. Messengers which do not
+	 * marshal messages, e.g. when converting them to flat data, ignore the
+	 * cache.
+	 * 
+	 * @param message
+	 *            The message to send
+	 * @param cache
+	 *            the cache of payloads shared during the fan-out
+	 * @return the {@link FutureSendTask} to wait for sending to finish and
+	 *         handle exceptions.
+	 */
+	default FutureSendTask send(T message, EncodingCache cache) {
+		return send(message);
+	}
+
 	/**
 	 * Retrieves the URI
 	 * 
@@ -246,10 +510,19 @@ public interface Messenger<T> {
 
 	/**
 	 * @return true if the messenger is currently unable to transport messenger,
-	 *         false otherwise
+	 *         false otherwise. If a {@link CircuitBreaker} is set up, this is
+	 *         true while the circuit is not closed.
 	 */
 	boolean isErrorState();
 
+	/**
+	 * @return the runtime statistics of this messenger or null if statistics
+	 *         are not supported
+	 */
+	default MessengerStatistics getStatistics() {
+		return null;
+	}
+
 	/**
 	 * Disposes the messenger
 	 */
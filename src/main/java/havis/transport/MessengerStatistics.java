@@ -0,0 +1,228 @@
+package havis.transport;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime statistics of a messenger. Messengers record each send with the
+ * time spent in transformation, marshalling and transport. All methods are
+ * thread-safe and lock-free. The statistics can be registered as an MBean
+ * with {@link #register(String, String)}.
+ */
+public class MessengerStatistics implements MessengerStatisticsMBean {
+
+	/**
+	 * JMX domain of the registered statistics
+	 */
+	public final static String DOMAIN = "havis.transport";
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final AtomicInteger resendQueueDepth = new AtomicInteger();
+	private final LongAdder errorStateMillis = new LongAdder();
+	private final AtomicLong errorSince = new AtomicLong();
+
+	private volatile LatencyHistogram transform = new LatencyHistogram();
+	private volatile LatencyHistogram marshal = new LatencyHistogram();
+	private volatile LatencyHistogram transport = new LatencyHistogram();
+
+	/**
+	 * Record a successful send
+	 * 
+	 * @param bytes
+	 *            the number of bytes sent, 0 if unknown
+	 * @param transformNanos
+	 *            the time spent in transformation in nanoseconds
+	 * @param marshalNanos
+	 *            the time spent in marshalling in nanoseconds
+	 * @param transportNanos
+	 *            the time spent in transport in nanoseconds
+	 */
+	public void sent(long bytes, long transformNanos, long marshalNanos, long transportNanos) {
+		this.sent.increment();
+		this.bytesOut.add(bytes);
+		this.transform.record(transformNanos);
+		this.marshal.record(marshalNanos);
+		this.transport.record(transportNanos);
+	}
+
+	/**
+	 * Record a failed send
+	 */
+	public void failed() {
+		this.failed.increment();
+	}
+
+	/**
+	 * Set the current number of messages in the resend queue
+	 * 
+	 * @param depth
+	 *            the number of messages
+	 */
+	public void setResendQueueDepth(int depth) {
+		this.resendQueueDepth.set(depth);
+	}
+
+	/**
+	 * Record a change of the error state, see {@link Messenger#isErrorState()}
+	 * 
+	 * @param errorState
+	 *            the new error state
+	 */
+	public void setErrorState(boolean errorState) {
+		long now = System.currentTimeMillis();
+		if (errorState) {
+			this.errorSince.compareAndSet(0, now);
+		} else {
+			long since = this.errorSince.getAndSet(0);
+			if (since != 0)
+				this.errorStateMillis.add(now - since);
+		}
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return this.sent.sum();
+	}
+
+	@Override
+	public long getMessagesFailed() {
+		return this.failed.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return this.bytesOut.sum();
+	}
+
+	@Override
+	public int getResendQueueDepth() {
+		return this.resendQueueDepth.get();
+	}
+
+	/**
+	 * @return the total time in error state in milliseconds, including the
+	 *         current error state
+	 */
+	@Override
+	public long getErrorStateMillis() {
+		long since = this.errorSince.get();
+		return this.errorStateMillis.sum() + (since != 0 ? System.currentTimeMillis() - since : 0);
+	}
+
+	@Override
+	public boolean isErrorState() {
+		return this.errorSince.get() != 0;
+	}
+
+	/**
+	 * @return the histogram of the time spent in transformation
+	 */
+	public LatencyHistogram getTransformLatency() {
+		return this.transform;
+	}
+
+	/**
+	 * @return the histogram of the time spent in marshalling
+	 */
+	public LatencyHistogram getMarshalLatency() {
+		return this.marshal;
+	}
+
+	/**
+	 * @return the histogram of the time spent in transport
+	 */
+	public LatencyHistogram getTransportLatency() {
+		return this.transport;
+	}
+
+	@Override
+	public double getTransformMeanMicros() {
+		return this.transform.getMeanMicros();
+	}
+
+	@Override
+	public long getTransform99thPercentileMicros() {
+		return this.transform.getPercentileMicros(99);
+	}
+
+	@Override
+	public double getMarshalMeanMicros() {
+		return this.marshal.getMeanMicros();
+	}
+
+	@Override
+	public long getMarshal99thPercentileMicros() {
+		return this.marshal.getPercentileMicros(99);
+	}
+
+	@Override
+	public double getTransportMeanMicros() {
+		return this.transport.getMeanMicros();
+	}
+
+	@Override
+	public long getTransport99thPercentileMicros() {
+		return this.transport.getPercentileMicros(99);
+	}
+
+	/**
+	 * Reset all counters and histograms, the error state and the resend
+	 * queue depth are kept
+	 */
+	@Override
+	public void reset() {
+		this.sent.reset();
+		this.failed.reset();
+		this.bytesOut.reset();
+		this.errorStateMillis.reset();
+		this.errorSince.getAndUpdate(since -> since != 0 ? System.currentTimeMillis() : 0);
+		this.transform = new LatencyHistogram();
+		this.marshal = new LatencyHistogram();
+		this.transport = new LatencyHistogram();
+	}
+
+	/**
+	 * Register the statistics with the platform MBean server
+	 * 
+	 * @param type
+	 *            the type, e.g. 'Subscriber'
+	 * @param name
+	 *            the name, e.g. the subscription ID
+	 * @return the object name to unregister the statistics with
+	 *         {@link #unregister(ObjectName)}
+	 * @throws TransportException
+	 *             if registration failed
+	 */
+	public ObjectName register(String type, String name) throws TransportException {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + ObjectName.quote(name));
+			server.registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new TransportException("Failed to register statistics", e);
+		}
+	}
+
+	/**
+	 * Unregister statistics from the platform MBean server
+	 * 
+	 * @param objectName
+	 *            the object name returned by {@link #register(String, String)}
+	 */
+	public static void unregister(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already unregistered
+		}
+	}
+}
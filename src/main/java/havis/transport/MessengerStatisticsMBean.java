@@ -0,0 +1,33 @@
+package havis.transport;
+
+/**
+ * JMX view of {@link MessengerStatistics}, all latencies in microseconds
+ */
+public interface MessengerStatisticsMBean {
+
+	long getMessagesSent();
+
+	long getMessagesFailed();
+
+	long getBytesOut();
+
+	int getResendQueueDepth();
+
+	long getErrorStateMillis();
+
+	boolean isErrorState();
+
+	double getTransformMeanMicros();
+
+	long getTransform99thPercentileMicros();
+
+	double getMarshalMeanMicros();
+
+	long getMarshal99thPercentileMicros();
+
+	double getTransportMeanMicros();
+
+	long getTransport99thPercentileMicros();
+
+	void reset();
+}
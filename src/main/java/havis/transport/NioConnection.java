@@ -0,0 +1,617 @@
+package havis.transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP connection served by a shared {@link SelectorLoop}, used
+ * if {@link Messenger#TCP_NON_BLOCKING_PROPERTY} is set. Writes never block
+ * the caller, they are queued and written by the loop thread, all writes
+ * queued at that time with a single gathering write. The connection is
+ * established asynchronously and re-established with exponential backoff
+ * whenever it is lost, queued writes are kept until the connection is up
+ * again. A write which was only partially written when the connection was
+ * lost fails, as the receiver cannot parse the rest of it. The number of
+ * queued writes is limited and writes which could not be started within the
+ * write timeout fail. Host names are resolved on each connect attempt by a
+ * small shared resolver pool, so a slow lookup does not stall the loop, the
+ * connect timeout includes the lookup.
+ */
+public class NioConnection implements Closeable {
+
+	/**
+	 * Listener for connection events and received data, all methods are
+	 * called on the loop thread and must not block
+	 */
+	public interface Listener {
+		/**
+		 * Called when the connection has been established
+		 */
+		default void connected() {
+		}
+
+		/**
+		 * Called when the connection has been lost or could not be
+		 * established, a reconnect is scheduled afterwards
+		 * 
+		 * @param cause
+		 *            the cause
+		 */
+		default void disconnected(IOException cause) {
+		}
+
+		/**
+		 * Called with received data
+		 * 
+		 * @param data
+		 *            the data, only valid during the call
+		 */
+		default void received(ByteBuffer data) {
+		}
+	}
+
+	private static class Write {
+		private final ByteBuffer[] buffers;
+		private final long size;
+		private final long deadline;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private Write(ByteBuffer[] buffers, long deadline) {
+			this.buffers = buffers;
+			this.size = remaining();
+			this.deadline = deadline;
+		}
+
+		private long remaining() {
+			long remaining = 0;
+			for (ByteBuffer buffer : this.buffers)
+				remaining += buffer.remaining();
+			return remaining;
+		}
+
+		private boolean isStarted() {
+			return remaining() < this.size;
+		}
+
+		private boolean isDone() {
+			return remaining() == 0;
+		}
+	}
+
+	private final static long INITIAL_BACKOFF = 1000;
+	private final static long MAX_BACKOFF = 30000;
+	private final static int MAX_GATHER = 1024;
+	private final static int READ_BUFFER_SIZE = 8192;
+	private final static int MAX_READS = 4;
+	private final static int RESOLVER_THREADS = 2;
+	private final static int MAX_RESOLVING = 1000;
+	private final static int DEFAULT_MAX_QUEUED = 10000;
+	private final static long CLOSE_TIMEOUT = 1000;
+	private final static long DEFAULT_WRITE_TIMEOUT = 60000;
+
+	private final static Executor resolver = createResolver();
+
+	private final SelectorLoop loop;
+	private final InetSocketAddress address;
+	private final long connectTimeout;
+	private final int maxQueued;
+	private final long writeTimeout;
+	private final Listener listener;
+	private final Queue<Write> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final AtomicInteger queued = new AtomicInteger();
+	private volatile boolean connected;
+	private volatile boolean closed;
+
+	// only accessed on the loop thread
+	private final Deque<Write> queue = new ArrayDeque<>();
+	private SocketChannel channel;
+	private SelectionKey key;
+	private ByteBuffer readBuffer;
+	private long backoff = INITIAL_BACKOFF;
+	private int attempt;
+	private boolean expiring;
+
+	/**
+	 * Create the pool resolving host names, a few threads are enough as a
+	 * lookup taking longer than the connect timeout fails the attempt anyway.
+	 * Idle threads terminate, so no pool is left behind when unused.
+	 */
+	private static Executor createResolver() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(MAX_RESOLVING), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "NioConnection-Resolver-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private final SelectorLoop.Handler handler = new SelectorLoop.Handler() {
+		@Override
+		public void ready(SelectionKey key) {
+			NioConnection.this.ready(key);
+		}
+	};
+
+	/**
+	 * Creates a new connection with the default limits for queued writes and
+	 * starts connecting
+	 * 
+	 * @param loop
+	 *            the loop serving the connection
+	 * @param address
+	 *            the address to connect to, an unresolved address is resolved
+	 *            on each connect attempt
+	 * @param connectTimeout
+	 *            the time in milliseconds to wait for the connection to be
+	 *            established, 0 to wait indefinitely
+	 * @param listener
+	 *            the listener, may be null
+	 */
+	public NioConnection(SelectorLoop loop, InetSocketAddress address, long connectTimeout, Listener listener) {
+		this(loop, address, connectTimeout, DEFAULT_MAX_QUEUED, DEFAULT_WRITE_TIMEOUT, listener);
+	}
+
+	/**
+	 * Creates a new connection and starts connecting
+	 * 
+	 * @param loop
+	 *            the loop serving the connection
+	 * @param address
+	 *            the address to connect to, an unresolved address is resolved
+	 *            on each connect attempt
+	 * @param connectTimeout
+	 *            the time in milliseconds to wait for the connection to be
+	 *            established, 0 to wait indefinitely
+	 * @param maxQueued
+	 *            the maximum number of queued writes, further writes fail
+	 * @param writeTimeout
+	 *            the time in milliseconds a write may wait before it fails, 0
+	 *            to wait indefinitely
+	 * @param listener
+	 *            the listener, may be null
+	 */
+	public NioConnection(SelectorLoop loop, InetSocketAddress address, long connectTimeout, int maxQueued, long writeTimeout, Listener listener) {
+		if (maxQueued < 1)
+			throw new IllegalArgumentException("maxQueued must be greater than 0");
+		if (writeTimeout < 0)
+			throw new IllegalArgumentException("writeTimeout must not be negative");
+		this.loop = loop;
+		this.address = address;
+		this.connectTimeout = connectTimeout;
+		this.maxQueued = maxQueued;
+		this.writeTimeout = writeTimeout;
+		this.listener = listener != null ? listener : new Listener() {
+		};
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				connect();
+			}
+		});
+	}
+
+	/**
+	 * Creates a new connection to the host and port of the URI on a shared
+	 * loop of {@link SelectorLoop#get(Map)}, with
+	 * {@link Messenger#TCP_TIMEOUT_PROPERTY} as connect timeout,
+	 * {@link Messenger#TCP_MAX_QUEUED_WRITES_PROPERTY} and
+	 * {@link Messenger#TCP_WRITE_TIMEOUT_PROPERTY}
+	 * 
+	 * @param uri
+	 *            the URI, e.g. 'tcp://host:port'
+	 * @param properties
+	 *            the properties of the messenger
+	 * @param listener
+	 *            the listener, may be null
+	 * @return the connection
+	 * @throws ValidationException
+	 *             if the URI or the properties are not valid
+	 */
+	public static NioConnection create(URI uri, Map<String, String> properties, Listener listener) throws ValidationException {
+		if (uri.getHost() == null || uri.getPort() < 0)
+			throw new ValidationException("Host and port must be specified in URI '" + uri + "'");
+		long timeout = PropertyValues.getLong(properties, Messenger.TCP_TIMEOUT_PROPERTY, 0);
+		int maxQueued = PropertyValues.getInt(properties, Messenger.TCP_MAX_QUEUED_WRITES_PROPERTY, DEFAULT_MAX_QUEUED);
+		if (maxQueued < 1)
+			throw PropertyValues.invalid(Messenger.TCP_MAX_QUEUED_WRITES_PROPERTY, Integer.valueOf(maxQueued));
+		long writeTimeout = PropertyValues.getLong(properties, Messenger.TCP_WRITE_TIMEOUT_PROPERTY, DEFAULT_WRITE_TIMEOUT);
+		if (writeTimeout < 0)
+			throw PropertyValues.invalid(Messenger.TCP_WRITE_TIMEOUT_PROPERTY, Long.valueOf(writeTimeout));
+		// resolved by the resolver on each connect attempt
+		return new NioConnection(SelectorLoop.get(properties), InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort()), timeout, maxQueued,
+				writeTimeout, listener);
+	}
+
+	/**
+	 * @return true if the connection is established, false otherwise
+	 */
+	public boolean isConnected() {
+		return this.connected;
+	}
+
+	/**
+	 * Queue data to be written
+	 * 
+	 * @param data
+	 *            the data, which must not be modified afterwards
+	 * @return the future completed when the data has been written to the
+	 *         socket, or completed exceptionally with a
+	 *         {@link TransportException}
+	 */
+	public CompletableFuture<Void> write(byte[] data) {
+		return write(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Queue the content of the stream to be written, the stream is closed and
+	 * its buffers are released afterwards
+	 * 
+	 * @param stream
+	 *            the stream
+	 * @return the future completed when the content has been written to the
+	 *         socket, or completed exceptionally with a
+	 *         {@link TransportException}
+	 */
+	public CompletableFuture<Void> write(final PooledByteBufferOutputStream stream) {
+		CompletableFuture<Void> future = write(stream.getBuffers());
+		future.whenComplete((result, error) -> stream.close());
+		return future;
+	}
+
+	/**
+	 * Queue buffers to be written
+	 * 
+	 * @param buffers
+	 *            the buffers, which must not be modified afterwards
+	 * @return the future completed when the buffers have been written to the
+	 *         socket, or completed exceptionally with a
+	 *         {@link TransportException}, e.g. if too many writes are queued
+	 *         or the write timed out
+	 */
+	public CompletableFuture<Void> write(ByteBuffer... buffers) {
+		Write write = new Write(buffers, this.writeTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.writeTimeout) : 0);
+		if (this.closed) {
+			write.future.completeExceptionally(new TransportConnectionException("Connection is closed"));
+			return write.future;
+		}
+		if (this.queued.incrementAndGet() > this.maxQueued) {
+			this.queued.decrementAndGet();
+			write.future.completeExceptionally(new TransportException("Too many writes queued for " + this.address));
+			return write.future;
+		}
+		write.future.whenComplete((result, error) -> this.queued.decrementAndGet());
+		this.pending.add(write);
+		if (this.draining.compareAndSet(false, true)) {
+			try {
+				this.loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				this.draining.set(false);
+				// the queue belongs to the loop thread, only fail writes not handed over yet
+				failPending(new TransportConnectionException("Selector loop is closed", e));
+			}
+		}
+		return write.future;
+	}
+
+	private void drain() {
+		this.draining.set(false);
+		Write write;
+		while ((write = this.pending.poll()) != null)
+			this.queue.add(write);
+		if (this.closed)
+			failAll(new TransportConnectionException("Connection is closed"));
+		else {
+			if (this.connected)
+				flush();
+			expireLater();
+		}
+	}
+
+	/**
+	 * Schedule the expiry of the oldest write which has not been started, if
+	 * there is none scheduled yet. A started write is finished by
+	 * {@link #flush()} or fails with the connection, so there is nothing to
+	 * expire until further writes are queued.
+	 */
+	private void expireLater() {
+		if (this.expiring || this.writeTimeout == 0)
+			return;
+		Write next = null;
+		for (Write write : this.queue)
+			if (!write.isStarted()) {
+				next = write;
+				break;
+			}
+		if (next == null)
+			return;
+		this.expiring = true;
+		this.loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				NioConnection.this.expiring = false;
+				expire();
+			}
+		}, Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime()) + 1));
+	}
+
+	/**
+	 * Fail the writes which are not started within the write timeout, the
+	 * queue is ordered by deadline
+	 */
+	private void expire() {
+		long now = System.nanoTime();
+		Write head = this.queue.peek();
+		// a started write is in progress and must be finished or fail with the connection
+		Write skipped = head != null && head.isStarted() ? this.queue.poll() : null;
+		while ((head = this.queue.peek()) != null && head.deadline - now <= 0)
+			this.queue.poll().future.completeExceptionally(new TransportException("Write to " + this.address + " timed out"));
+		if (skipped != null)
+			this.queue.addFirst(skipped);
+		expireLater();
+	}
+
+	private void connect() {
+		if (this.closed)
+			return;
+		final int attempt = ++this.attempt;
+		// the timeout includes resolving the host name
+		if (this.connectTimeout > 0) {
+			this.loop.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (attempt == NioConnection.this.attempt && !NioConnection.this.connected && !NioConnection.this.closed)
+						failed(new SocketTimeoutException("Connect to " + NioConnection.this.address + " timed out"));
+				}
+			}, this.connectTimeout);
+		}
+		if (!this.address.isUnresolved()) {
+			connect(this.address);
+			return;
+		}
+		final String host = this.address.getHostString();
+		final int port = this.address.getPort();
+		try {
+			resolver.execute(new Runnable() {
+				@Override
+				public void run() {
+					final InetSocketAddress address = new InetSocketAddress(host, port);
+					try {
+						NioConnection.this.loop.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (attempt == NioConnection.this.attempt)
+									connect(address);
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						// loop is closed
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			failed(new IOException("Failed to resolve " + host, e));
+		}
+	}
+
+	private void connect(InetSocketAddress address) {
+		if (this.closed)
+			return;
+		try {
+			if (address.isUnresolved())
+				throw new UnknownHostException("Failed to resolve " + address.getHostString());
+			this.channel = SocketChannel.open();
+			this.channel.configureBlocking(false);
+			this.channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			if (this.channel.connect(address)) {
+				this.key = this.loop.register(this.channel, 0, this.handler);
+				connected();
+				return;
+			}
+			this.key = this.loop.register(this.channel, SelectionKey.OP_CONNECT, this.handler);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	private void connected() {
+		this.connected = true;
+		this.backoff = INITIAL_BACKOFF;
+		this.key.interestOps(SelectionKey.OP_READ);
+		this.listener.connected();
+		flush();
+	}
+
+	private void ready(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				if (!this.channel.finishConnect())
+					return;
+				connected();
+			}
+			if (key.isValid() && key.isReadable())
+				read();
+			if (key.isValid() && key.isWritable())
+				flush();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	/**
+	 * Read a few buffers at most, so a connection receiving continuously does
+	 * not starve the other connections of the loop, the rest is read on the
+	 * next ready event
+	 */
+	private void read() throws IOException {
+		if (this.readBuffer == null)
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		int count = 0;
+		for (int i = 0; i < MAX_READS && (count = this.channel.read(this.readBuffer)) > 0; i++) {
+			this.readBuffer.flip();
+			this.listener.received(this.readBuffer);
+			this.readBuffer.clear();
+		}
+		if (count < 0)
+			throw new EOFException("Connection closed by " + this.address);
+	}
+
+	/**
+	 * Write as much of the queue as possible with one gathering write, waits
+	 * for the channel to become writable if the socket buffer is full
+	 */
+	private void flush() {
+		if (!this.connected || this.queue.isEmpty())
+			return;
+		try {
+			List<ByteBuffer> gather = new ArrayList<>();
+			while (!this.queue.isEmpty()) {
+				gather.clear();
+				for (Write write : this.queue) {
+					for (ByteBuffer buffer : write.buffers)
+						if (buffer.hasRemaining())
+							gather.add(buffer);
+					if (gather.size() >= MAX_GATHER)
+						break;
+				}
+				long written = this.channel.write(gather.toArray(new ByteBuffer[gather.size()]));
+				while (!this.queue.isEmpty() && this.queue.peek().isDone())
+					this.queue.poll().future.complete(null);
+				if (written == 0 && !this.queue.isEmpty())
+					break;
+			}
+			this.key.interestOps(this.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	private void failed(IOException cause) {
+		closeChannel();
+		this.connected = false;
+		// ignore the pending lookup and connect timeout of the failed attempt
+		this.attempt++;
+		// the receiver cannot parse the rest of a partially written message
+		Write head = this.queue.peek();
+		if (head != null && head.isStarted()) {
+			this.queue.poll();
+			head.future.completeExceptionally(new TransportConnectionException("Connection to " + this.address + " lost", cause));
+		}
+		if (this.closed)
+			return;
+		this.listener.disconnected(cause);
+		long delay = this.backoff;
+		this.backoff = Math.min(this.backoff * 2, MAX_BACKOFF);
+		this.loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				connect();
+			}
+		}, delay);
+	}
+
+	private void closeChannel() {
+		if (this.key != null) {
+			this.key.cancel();
+			this.key = null;
+		}
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			this.channel = null;
+		}
+	}
+
+	/**
+	 * Fail all waiting writes, must be called on the loop thread
+	 */
+	private void failAll(TransportException cause) {
+		Write write;
+		while ((write = this.queue.poll()) != null)
+			write.future.completeExceptionally(cause);
+		failPending(cause);
+	}
+
+	/**
+	 * Fail the writes not handed over to the loop thread yet, may be called
+	 * on any thread
+	 */
+	private void failPending(TransportException cause) {
+		Write write;
+		while ((write = this.pending.poll()) != null)
+			write.future.completeExceptionally(cause);
+	}
+
+	/**
+	 * @return the number of writes waiting to be written
+	 */
+	public int getQueued() {
+		return this.queued.get();
+	}
+
+	/**
+	 * Close the connection, writes which have not been written yet fail. If
+	 * the loop is closed already, the writes handed over to the loop are
+	 * failed once the loop thread terminated.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		try {
+			this.loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					closeChannel();
+					NioConnection.this.connected = false;
+					failAll(new TransportConnectionException("Connection is closed"));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			TransportConnectionException cause = new TransportConnectionException("Connection is closed");
+			if (this.loop.inLoop() || this.loop.awaitTermination(CLOSE_TIMEOUT))
+				failAll(cause);
+			else
+				failPending(cause);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package havis.transport;
+
+/**
+ * Policy applied when the queue of a subscription is full, set with
+ * {@link Messenger#QUEUE_OVERFLOW_POLICY_PROPERTY}
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Block the sender until there is space in the queue
+	 */
+	BLOCK,
+
+	/**
+	 * Cancel the oldest queued message to make space for the new one
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Cancel the new message
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Fail the new message with a {@link TransportException}
+	 */
+	FAIL;
+
+	/**
+	 * Parse the policy from a property value, case insensitive
+	 * 
+	 * @param value
+	 *            the property value
+	 * @param defaultPolicy
+	 *            the policy to use if the value is null or empty
+	 * @return the policy
+	 * @throws ValidationException
+	 *             if the value is not a valid policy
+	 */
+	public static OverflowPolicy parse(String value, OverflowPolicy defaultPolicy) throws ValidationException {
+		if (value == null || value.trim().isEmpty())
+			return defaultPolicy;
+		String name = value.trim().toUpperCase().replace('-', '_');
+		for (OverflowPolicy policy : values())
+			if (policy.name().equals(name))
+				return policy;
+		throw new ValidationException("Invalid value for " + Messenger.QUEUE_OVERFLOW_POLICY_PROPERTY + ": " + value);
+	}
+}
@@ -0,0 +1,186 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes arrived messages to the callbacks of all matching paths. Paths are
+ * stored in a trie of their '/' separated levels and may contain MQTT style
+ * wildcards: '+' matches exactly one level, '#' as last level matches the
+ * parent level and any number of child levels. As in MQTT, wildcards in the
+ * first level do not match paths starting with '$'. Looking up the callbacks
+ * for a path takes time proportional to its depth, regardless of the number
+ * of registered paths. Lookups do not lock and may run concurrently with
+ * changes.
+ * 
+ * Transporters register the router as the single callback of a subscription
+ * and add the paths of {@link Transporter#addPath(String, Callback)} to it.
+ */
+public class PathRouter implements Callback {
+
+	private final static String SEPARATOR = "/";
+	private final static String SINGLE_LEVEL = "+";
+	private final static String MULTI_LEVEL = "#";
+
+	private static class Node {
+		private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+		private final List<Callback> callbacks = new CopyOnWriteArrayList<>();
+
+		private boolean isEmpty() {
+			return this.children.isEmpty() && this.callbacks.isEmpty();
+		}
+	}
+
+	private final Node root = new Node();
+	private int size;
+
+	/**
+	 * Validate a path
+	 * 
+	 * @param path
+	 *            the path, e.g. 'devices/+/tags/#'
+	 * @throws ValidationException
+	 *             if a wildcard does not occupy a whole level or '#' is not
+	 *             the last level
+	 */
+	public static void validate(String path) throws ValidationException {
+		if (path == null || path.isEmpty())
+			throw new ValidationException("Path must not be empty");
+		String[] levels = path.split(SEPARATOR, -1);
+		for (int i = 0; i < levels.length; i++) {
+			String level = levels[i];
+			if (level.equals(MULTI_LEVEL) && i < levels.length - 1)
+				throw new ValidationException("Wildcard '" + MULTI_LEVEL + "' must be the last level of path '" + path + "'");
+			if (level.length() > 1 && (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL)))
+				throw new ValidationException("Wildcards must occupy a whole level of path '" + path + "'");
+		}
+	}
+
+	/**
+	 * Add a callback for a path, a callback can be added for several paths
+	 * and a path can have several callbacks
+	 * 
+	 * @param path
+	 *            the path, which may contain wildcards
+	 * @param callback
+	 *            the callback
+	 * @throws ValidationException
+	 *             if the path is not valid
+	 */
+	public synchronized void add(String path, Callback callback) throws ValidationException {
+		validate(path);
+		Node node = this.root;
+		for (String level : path.split(SEPARATOR, -1)) {
+			Node child = node.children.get(level);
+			if (child == null)
+				node.children.put(level, child = new Node());
+			node = child;
+		}
+		if (!node.callbacks.contains(callback)) {
+			node.callbacks.add(callback);
+			this.size++;
+		}
+	}
+
+	/**
+	 * Remove a callback of a path
+	 * 
+	 * @param path
+	 *            the path as passed to {@link #add(String, Callback)}
+	 * @param callback
+	 *            the callback
+	 * @return true if the callback was removed, false if it was not added for
+	 *         the path
+	 */
+	public synchronized boolean remove(String path, Callback callback) {
+		String[] levels = path.split(SEPARATOR, -1);
+		Node[] nodes = new Node[levels.length + 1];
+		nodes[0] = this.root;
+		for (int i = 0; i < levels.length; i++) {
+			nodes[i + 1] = nodes[i].children.get(levels[i]);
+			if (nodes[i + 1] == null)
+				return false;
+		}
+		if (!nodes[levels.length].callbacks.remove(callback))
+			return false;
+		this.size--;
+		// prune nodes without callbacks and children
+		for (int i = levels.length; i > 0 && nodes[i].isEmpty(); i--)
+			nodes[i - 1].children.remove(levels[i - 1], nodes[i]);
+		return true;
+	}
+
+	/**
+	 * Get the callbacks of all paths matching the specified path
+	 * 
+	 * @param path
+	 *            the path of an arrived message, without wildcards
+	 * @return the matching callbacks, each callback only once
+	 */
+	public List<Callback> match(String path) {
+		List<Callback> callbacks = new ArrayList<>();
+		match(this.root, path, 0, callbacks);
+		return callbacks;
+	}
+
+	private static void match(Node node, String path, int start, List<Callback> callbacks) {
+		if (start > path.length()) {
+			// all levels consumed
+			add(node.callbacks, callbacks);
+			// '#' also matches the parent level
+			Node multi = node.children.get(MULTI_LEVEL);
+			if (multi != null)
+				add(multi.callbacks, callbacks);
+			return;
+		}
+		int end = path.indexOf(SEPARATOR, start);
+		if (end < 0)
+			end = path.length();
+		// wildcards in the first level do not match system paths like '$SYS'
+		boolean wildcards = start > 0 || !path.startsWith("$");
+
+		Node child = node.children.get(path.substring(start, end));
+		if (child != null)
+			match(child, path, end + 1, callbacks);
+		if (wildcards) {
+			child = node.children.get(SINGLE_LEVEL);
+			if (child != null)
+				match(child, path, end + 1, callbacks);
+			child = node.children.get(MULTI_LEVEL);
+			if (child != null)
+				add(child.callbacks, callbacks);
+		}
+	}
+
+	private static void add(List<Callback> source, List<Callback> target) {
+		for (Callback callback : source)
+			if (!target.contains(callback))
+				target.add(callback);
+	}
+
+	/**
+	 * Pass the message to the callbacks of all matching paths
+	 */
+	@Override
+	public void arrived(String path, Object message) {
+		for (Callback callback : match(path))
+			callback.arrived(path, message);
+	}
+
+	/**
+	 * @return the number of registered path and callback pairs
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if no callback is registered, false otherwise
+	 */
+	public synchronized boolean isEmpty() {
+		return this.size == 0;
+	}
+}
@@ -0,0 +1,149 @@
+package havis.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream writing into pooled direct {@link ByteBuffer}s. The content
+ * can be written to a channel without further copies, using a gathering
+ * write if supported by the channel. The buffers are returned to the pool
+ * when the stream is closed.
+ */
+public class PooledByteBufferOutputStream extends OutputStream {
+
+	private final ByteBufferPool pool;
+	private final List<ByteBuffer> buffers = new ArrayList<>();
+	private ByteBuffer current;
+	private long size;
+	private boolean closed;
+
+	/**
+	 * Creates a new output stream
+	 * 
+	 * @param pool
+	 *            the pool to acquire the buffers from
+	 */
+	public PooledByteBufferOutputStream(ByteBufferPool pool) {
+		this.pool = pool;
+	}
+
+	private ByteBuffer current() throws IOException {
+		if (this.closed)
+			throw new IOException("Stream is closed");
+		if (this.current == null || !this.current.hasRemaining()) {
+			this.current = this.pool.acquire();
+			this.buffers.add(this.current);
+		}
+		return this.current;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		current().put((byte) b);
+		this.size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			ByteBuffer buffer = current();
+			int count = Math.min(len, buffer.remaining());
+			buffer.put(b, off, count);
+			off += count;
+			len -= count;
+			this.size += count;
+		}
+	}
+
+	/**
+	 * Get the buffer to write into directly, a new buffer is started if the
+	 * current one has less than the specified number of bytes left. The number
+	 * of bytes written into the buffer must be reported with
+	 * {@link #written(int)}.
+	 * 
+	 * @param count
+	 *            the number of bytes to be written at once, not more than the
+	 *            buffer size of the pool
+	 * @return the buffer
+	 * @throws IOException
+	 *             if the stream is closed
+	 */
+	ByteBuffer buffer(int count) throws IOException {
+		if (this.current != null && this.current.remaining() < count)
+			this.current = null;
+		return current();
+	}
+
+	/**
+	 * Report bytes written into the buffer of {@link #buffer(int)}
+	 * 
+	 * @param count
+	 *            the number of bytes
+	 */
+	void written(int count) {
+		this.size += count;
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return read-only views of the written content, ready to be written to
+	 *         a channel
+	 */
+	public ByteBuffer[] getBuffers() {
+		ByteBuffer[] result = new ByteBuffer[this.buffers.size()];
+		for (int i = 0; i < result.length; i++) {
+			ByteBuffer buffer = this.buffers.get(i).duplicate();
+			buffer.flip();
+			result[i] = buffer.asReadOnlyBuffer();
+		}
+		return result;
+	}
+
+	/**
+	 * Write the content to the specified channel, using a gathering write if
+	 * supported by the channel
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer[] buffers = getBuffers();
+		if (channel instanceof GatheringByteChannel) {
+			long remaining = this.size;
+			while (remaining > 0)
+				remaining -= ((GatheringByteChannel) channel).write(buffers);
+		} else {
+			for (ByteBuffer buffer : buffers)
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Returns the buffers to the pool, the content must not be used
+	 * afterwards
+	 */
+	@Override
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			for (ByteBuffer buffer : this.buffers)
+				this.pool.release(buffer);
+			this.buffers.clear();
+			this.current = null;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package havis.transport;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+/**
+ * Compiled accessor for a dotted property path like <code>tag.epc</code>,
+ * each property is read by its getter or public field. The path is resolved
+ * once using {@link MethodHandle}s, so reading the value does not need any
+ * reflective lookups. Accessors are cached per class and path, use
+ * {@link #get(Class, String)} to get a shared accessor.
+ */
+public class PropertyAccessor {
+
+	private final static ExpressionCache<PropertyAccessor> CACHE = new ExpressionCache<>(new ExpressionCache.Compiler<PropertyAccessor>() {
+		@Override
+		public PropertyAccessor compile(Class<?> clazz, String expression) throws ValidationException {
+			return new PropertyAccessor(clazz, expression);
+		}
+	});
+
+	private final static MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+	private final String path;
+	private final MethodHandle[] handles;
+	private final Class<?> type;
+	private final Type genericType;
+
+	private PropertyAccessor(Class<?> clazz, String path) throws ValidationException {
+		this.path = path;
+		String[] names = path.split("\\.");
+		this.handles = new MethodHandle[names.length];
+		Class<?> type = clazz;
+		Type genericType = clazz;
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name.isEmpty())
+				throw new ValidationException("Invalid property path '" + path + "'");
+			try {
+				Method getter = getter(type, name);
+				if (getter != null) {
+					this.handles[i] = lookup.unreflect(getter).asType(GETTER);
+					genericType = getter.getGenericReturnType();
+					type = getter.getReturnType();
+				} else {
+					Field field = type.getField(name);
+					if (Modifier.isStatic(field.getModifiers()))
+						throw new NoSuchFieldException(name);
+					this.handles[i] = lookup.unreflectGetter(field).asType(GETTER);
+					genericType = field.getGenericType();
+					type = field.getType();
+				}
+			} catch (NoSuchFieldException | IllegalAccessException e) {
+				throw new ValidationException("Property '" + name + "' of path '" + path + "' not found in " + type.getName(), e);
+			}
+		}
+		this.type = type;
+		this.genericType = genericType;
+	}
+
+	private static Method getter(Class<?> clazz, String name) {
+		String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		for (String prefix : new String[] { "get", "is" }) {
+			try {
+				Method method = clazz.getMethod(prefix + suffix);
+				if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class)
+					return method;
+			} catch (NoSuchMethodException e) {
+				// try next
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the shared accessor for the specified class and path, compiles the
+	 * accessor if it does not exist yet
+	 * 
+	 * @param clazz
+	 *            the class to read the property of
+	 * @param path
+	 *            the dotted property path
+	 * @return the accessor
+	 * @throws ValidationException
+	 *             if the path is not valid for the class
+	 */
+	public static PropertyAccessor get(Class<?> clazz, String path) throws ValidationException {
+		return CACHE.get(clazz, path);
+	}
+
+	/**
+	 * Read the property value
+	 * 
+	 * @param target
+	 *            the object to read the property of, must be an instance of
+	 *            the class the accessor was compiled for
+	 * @return the value or null if the target or any intermediate value is
+	 *         null
+	 * @throws TransportException
+	 *             if reading fails
+	 */
+	public Object read(Object target) throws TransportException {
+		Object value = target;
+		try {
+			for (MethodHandle handle : this.handles) {
+				if (value == null)
+					return null;
+				value = (Object) handle.invokeExact(value);
+			}
+		} catch (Throwable t) {
+			throw new TransportException("Failed to read '" + this.path + "'", t);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the property path
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return the declared type of the property
+	 */
+	public Class<?> getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the declared generic type of the property, e.g. to determine
+	 *         the element type of a list
+	 */
+	public Type getGenericType() {
+		return this.genericType;
+	}
+}
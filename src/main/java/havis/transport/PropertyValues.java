@@ -0,0 +1,81 @@
+package havis.transport;
+
+import java.util.Map;
+
+/**
+ * Parsing of messenger and subscription property values
+ */
+final class PropertyValues {
+
+	private PropertyValues() {
+	}
+
+	/**
+	 * @param properties
+	 *            the properties, may be null
+	 * @param name
+	 *            the name of the property
+	 * @return the trimmed value or null if the property is not set or empty
+	 */
+	static String get(Map<String, String> properties, String name) {
+		String value = properties != null ? properties.get(name) : null;
+		if (value == null || value.trim().isEmpty())
+			return null;
+		return value.trim();
+	}
+
+	/**
+	 * @param properties
+	 *            the properties, may be null
+	 * @param name
+	 *            the name of the property
+	 * @param defaultValue
+	 *            the value to use if the property is not set or empty
+	 * @return the value
+	 * @throws ValidationException
+	 *             if the value is not an integer
+	 */
+	static int getInt(Map<String, String> properties, String name, int defaultValue) throws ValidationException {
+		String value = get(properties, name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new ValidationException("Invalid value for " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * @param properties
+	 *            the properties, may be null
+	 * @param name
+	 *            the name of the property
+	 * @param defaultValue
+	 *            the value to use if the property is not set or empty
+	 * @return the value
+	 * @throws ValidationException
+	 *             if the value is not a long integer
+	 */
+	static long getLong(Map<String, String> properties, String name, long defaultValue) throws ValidationException {
+		String value = get(properties, name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new ValidationException("Invalid value for " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            the name of the property
+	 * @param value
+	 *            the invalid value
+	 * @return the exception to throw for an invalid value
+	 */
+	static ValidationException invalid(String name, Object value) {
+		return new ValidationException("Invalid value for " + name + ": " + value);
+	}
+}
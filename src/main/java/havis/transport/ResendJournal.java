@@ -0,0 +1,343 @@
+package havis.transport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent FIFO queue of marshalled messages, used for the resend queue if
+ * {@link Messenger#RESEND_QUEUE_TYPE_PROPERTY} is set to
+ * {@link Messenger#PERSISTENT_RESEND_QUEUE}. Records are appended to a
+ * journal of memory-mapped segment files in the specified directory. Only the
+ * segments currently read and written are mapped, the heap only holds the
+ * record being appended or read. Fully consumed segments are deleted. The
+ * queue survives process restarts, on creation the read position is restored
+ * and all remaining records are replayed in order.
+ * 
+ * Each record consists of the data length, the CRC32 of the data and the
+ * data itself. The length is written last, so a record which was not written
+ * completely is detected and ignored when the journal is opened again.
+ */
+public class ResendJournal implements Closeable {
+
+	private final static String SEGMENT_SUFFIX = ".seg";
+	private final static Pattern SEGMENT_NAME = Pattern.compile("[0-9a-f]{16}" + Pattern.quote(SEGMENT_SUFFIX));
+	private final static String HEAD_FILE = "head";
+	private final static int HEADER_SIZE = 8;
+	private final static int HEAD_SIZE = 12;
+
+	private final File directory;
+	private final int segmentSize;
+	private final int capacity;
+
+	private MappedByteBuffer head;
+
+	private long readSegment;
+	private int readPosition;
+	private MappedByteBuffer readBuffer;
+	// length of the record at the read position once validated, 0 otherwise
+	private int readLength;
+
+	private long writeSegment;
+	private int writePosition;
+	private MappedByteBuffer writeBuffer;
+
+	private int size;
+
+	/**
+	 * Opens or creates a journal
+	 * 
+	 * @param directory
+	 *            the directory containing the segment files
+	 * @param segmentSize
+	 *            the size of each segment file in bytes, limits the size of a
+	 *            single record
+	 * @param capacity
+	 *            the maximum number of records in the journal
+	 * @throws TransportException
+	 *             if the journal could not be opened
+	 */
+	public ResendJournal(File directory, int segmentSize, int capacity) throws TransportException {
+		if (segmentSize <= HEADER_SIZE)
+			throw new IllegalArgumentException("segmentSize must be greater than " + HEADER_SIZE);
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.capacity = capacity;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Failed to create directory " + directory);
+			open();
+		} catch (IOException e) {
+			throw new TransportException("Failed to open resend journal in " + directory, e);
+		}
+	}
+
+	private void open() throws IOException {
+		this.head = map(new File(this.directory, HEAD_FILE), HEAD_SIZE);
+		long[] segments = listSegments();
+		if (segments.length == 0) {
+			this.readSegment = this.writeSegment = 0;
+			this.readPosition = this.writePosition = 0;
+			this.writeBuffer = this.readBuffer = map(segmentFile(0), this.segmentSize);
+			writeHead();
+			return;
+		}
+
+		this.readSegment = this.head.getLong(0);
+		this.readPosition = this.head.getInt(8);
+		if (Arrays.binarySearch(segments, this.readSegment) < 0) {
+			// head points to a deleted segment, continue with the oldest one
+			this.readSegment = segments[0];
+			this.readPosition = 0;
+		}
+		// remove segments left over from a crash before their deletion
+		for (long segment : segments)
+			if (segment < this.readSegment)
+				segmentFile(segment).delete();
+
+		this.writeSegment = segments[segments.length - 1];
+		this.writeBuffer = map(segmentFile(this.writeSegment), this.segmentSize);
+		this.readBuffer = this.readSegment == this.writeSegment ? this.writeBuffer : map(segmentFile(this.readSegment), this.segmentSize);
+
+		// count the remaining records and find the write position
+		this.size = 0;
+		for (long segment : segments) {
+			if (segment < this.readSegment)
+				continue;
+			ByteBuffer buffer = segment == this.readSegment ? this.readBuffer : segment == this.writeSegment ? this.writeBuffer : map(
+					segmentFile(segment), this.segmentSize);
+			int position = segment == this.readSegment ? this.readPosition : 0;
+			int length;
+			while ((length = validLength(buffer, position)) > 0) {
+				position += HEADER_SIZE + length;
+				this.size++;
+			}
+			if (segment == this.writeSegment)
+				this.writePosition = position;
+		}
+		writeHead();
+	}
+
+	/**
+	 * @return the numbers of the segment files in ascending order, files
+	 *         which are not named like a segment are ignored
+	 */
+	private long[] listSegments() {
+		String[] names = this.directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return SEGMENT_NAME.matcher(name).matches();
+			}
+		});
+		long[] segments = new long[names != null ? names.length : 0];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = Long.parseLong(names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()), 16);
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private File segmentFile(long segment) {
+		return new File(this.directory, String.format("%016x", Long.valueOf(segment)) + SEGMENT_SUFFIX);
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			return channel.map(MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/**
+	 * @return the length of the record at the specified position, or 0 if
+	 *         there is no complete record
+	 */
+	private int validLength(ByteBuffer buffer, int position) {
+		if (position + HEADER_SIZE > this.segmentSize)
+			return 0;
+		int length = buffer.getInt(position);
+		if (length <= 0 || position + HEADER_SIZE + length > this.segmentSize)
+			return 0;
+		// checksum the mapped data in place instead of copying it
+		ByteBuffer view = buffer.duplicate();
+		view.limit(position + HEADER_SIZE + length);
+		view.position(position + HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(view);
+		return (int) crc.getValue() == buffer.getInt(position + 4) ? length : 0;
+	}
+
+	private static byte[] read(ByteBuffer buffer, int position, int length) {
+		byte[] data = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + HEADER_SIZE);
+		view.get(data);
+		return data;
+	}
+
+	private static int crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	private void writeHead() {
+		this.head.putLong(0, this.readSegment);
+		this.head.putInt(8, this.readPosition);
+	}
+
+	/**
+	 * Appends a record to the end of the journal
+	 * 
+	 * @param data
+	 *            the record data
+	 * @return true if the record was appended, false if the journal is full
+	 * @throws TransportException
+	 *             if the record is too large or could not be written
+	 */
+	public synchronized boolean append(byte[] data) throws TransportException {
+		checkOpen();
+		if (data.length == 0 || HEADER_SIZE + data.length > this.segmentSize)
+			throw new TransportException("Invalid record size " + data.length + " for segment size " + this.segmentSize);
+		if (this.size >= this.capacity)
+			return false;
+		if (this.writePosition + HEADER_SIZE + data.length > this.segmentSize) {
+			try {
+				this.writeBuffer = map(segmentFile(this.writeSegment + 1), this.segmentSize);
+			} catch (IOException e) {
+				throw new TransportException("Failed to create segment in " + this.directory, e);
+			}
+			this.writeSegment++;
+			this.writePosition = 0;
+		}
+		ByteBuffer view = this.writeBuffer.duplicate();
+		view.position(this.writePosition + HEADER_SIZE);
+		view.put(data);
+		this.writeBuffer.putInt(this.writePosition + 4, crc(data));
+		int next = this.writePosition + HEADER_SIZE + data.length;
+		// terminate the record chain before publishing the record
+		if (next + HEADER_SIZE <= this.segmentSize)
+			this.writeBuffer.putInt(next, 0);
+		this.writeBuffer.putInt(this.writePosition, data.length);
+		this.writePosition = next;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * @return the data of the oldest record or null if the journal is empty
+	 * @throws TransportException
+	 *             if the journal is closed or the next segment could not be
+	 *             read
+	 */
+	public synchronized byte[] peek() throws TransportException {
+		checkOpen();
+		if (this.size == 0)
+			return null;
+		moveToNextRecord();
+		return read(this.readBuffer, this.readPosition, this.readLength);
+	}
+
+	/**
+	 * Removes the oldest record, i.e. after it has been sent successfully
+	 * 
+	 * @throws TransportException
+	 *             if the journal is closed or empty
+	 */
+	public synchronized void remove() throws TransportException {
+		checkOpen();
+		if (this.size == 0)
+			throw new TransportException("Resend journal is empty");
+		moveToNextRecord();
+		this.readPosition += HEADER_SIZE + this.readLength;
+		this.readLength = 0;
+		this.size--;
+		writeHead();
+	}
+
+	private void checkOpen() throws TransportException {
+		if (this.writeBuffer == null)
+			throw new TransportException("Resend journal is closed");
+	}
+
+	/**
+	 * Moves the read position to the next segment, if the current segment has
+	 * been fully consumed, and validates the record at the read position once.
+	 * Must only be called if the journal is not empty.
+	 */
+	private void moveToNextRecord() throws TransportException {
+		if (this.readLength > 0)
+			return;
+		while ((this.readLength = validLength(this.readBuffer, this.readPosition)) == 0 && this.readSegment < this.writeSegment) {
+			long consumed = this.readSegment++;
+			this.readPosition = 0;
+			if (this.readSegment == this.writeSegment) {
+				this.readBuffer = this.writeBuffer;
+			} else {
+				try {
+					this.readBuffer = map(segmentFile(this.readSegment), this.segmentSize);
+				} catch (IOException e) {
+					throw new TransportException("Failed to map segment in " + this.directory, e);
+				}
+			}
+			writeHead();
+			segmentFile(consumed).delete();
+		}
+		if (this.readLength == 0)
+			throw new TransportException("Resend journal in " + this.directory + " is corrupt");
+	}
+
+	/**
+	 * @return the number of records in the journal
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if the journal contains no records, false otherwise
+	 */
+	public synchronized boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * @return the maximum number of records in the journal
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Forces all changes to be written to the storage device. Without calling
+	 * this method, records survive process restarts but not necessarily power
+	 * loss.
+	 */
+	public synchronized void sync() {
+		if (this.writeBuffer != null) {
+			this.writeBuffer.force();
+			this.head.force();
+		}
+	}
+
+	/**
+	 * Closes the journal, the records remain on disk. The segment files are
+	 * unmapped when the buffers are garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		sync();
+		this.writeBuffer = null;
+		this.readBuffer = null;
+		this.head = null;
+	}
+}
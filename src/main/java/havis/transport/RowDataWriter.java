@@ -0,0 +1,104 @@
+package havis.transport;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Adapter providing the typed row methods of {@link DataWriter} for writers
+ * which only support {@link DataWriter#write(List)}. Each row is collected
+ * and passed to the underlying writer as a list in {@link #endRow()}. The
+ * list is reused for the next row, so the underlying writer must not keep it
+ * after the call.
+ */
+public class RowDataWriter implements DataWriter {
+
+	private final DataWriter writer;
+	private Object[] row = new Object[0];
+	private List<Object> values = Arrays.asList(this.row);
+
+	/**
+	 * Creates a new adapter
+	 * 
+	 * @param writer
+	 *            the writer to pass the rows to
+	 */
+	public RowDataWriter(DataWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Get a writer supporting typed rows
+	 * 
+	 * @param writer
+	 *            the writer
+	 * @return the writer itself if it supports typed rows, an adapter
+	 *         otherwise
+	 */
+	public static DataWriter of(DataWriter writer) {
+		return writer.supportsRows() ? writer : new RowDataWriter(writer);
+	}
+
+	@Override
+	public void prepare(List<String> fields) throws TransportException {
+		this.writer.prepare(fields);
+		if (this.row.length != fields.size()) {
+			this.row = new Object[fields.size()];
+			this.values = Arrays.asList(this.row);
+		}
+	}
+
+	@Override
+	public void write(List<Object> values) throws TransportException {
+		this.writer.write(values);
+	}
+
+	@Override
+	public boolean supportsRows() {
+		return true;
+	}
+
+	@Override
+	public void beginRow() throws TransportException {
+		Arrays.fill(this.row, null);
+	}
+
+	@Override
+	public void writeNull(int column) throws TransportException {
+		this.row[column] = null;
+	}
+
+	@Override
+	public void writeLong(int column, long value) throws TransportException {
+		this.row[column] = Long.valueOf(value);
+	}
+
+	@Override
+	public void writeDouble(int column, double value) throws TransportException {
+		this.row[column] = Double.valueOf(value);
+	}
+
+	@Override
+	public void writeBoolean(int column, boolean value) throws TransportException {
+		this.row[column] = Boolean.valueOf(value);
+	}
+
+	@Override
+	public void writeString(int column, CharSequence value) throws TransportException {
+		this.row[column] = value != null ? value.toString() : null;
+	}
+
+	@Override
+	public void writeObject(int column, Object value) throws TransportException {
+		this.row[column] = value;
+	}
+
+	@Override
+	public void endRow() throws TransportException {
+		this.writer.write(this.values);
+	}
+
+	@Override
+	public void commit() throws TransportException {
+		this.writer.commit();
+	}
+}
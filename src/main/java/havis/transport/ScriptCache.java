@@ -0,0 +1,145 @@
+package havis.transport;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Cache of compiled scripts for {@link Messenger#JS_SCRIPT_PROPERTY}, keyed
+ * by script content. Messengers with identical scripts share one compiled
+ * script, so the script is parsed, compiled and warmed up only once. Each
+ * evaluation gets its own bindings, so a compiled script can be evaluated by
+ * several threads concurrently, e.g. by the transformer workers of
+ * {@link SendExecutors#transformers(Map)}.
+ */
+public class ScriptCache {
+
+	private final static ScriptCache DEFAULT = new ScriptCache(Messenger.JS_TRANSFORMER);
+
+	private final String engineName;
+	private final ConcurrentMap<String, FutureTask<CompiledScript>> scripts = new ConcurrentHashMap<>();
+	private volatile Compilable engine;
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param engineName
+	 *            the name of the script engine, e.g. 'javascript'
+	 */
+	public ScriptCache(String engineName) {
+		this.engineName = engineName;
+	}
+
+	/**
+	 * @return the shared cache of JavaScript scripts
+	 */
+	public static ScriptCache getDefault() {
+		return DEFAULT;
+	}
+
+	private Compilable getEngine() throws ValidationException {
+		Compilable compilable = this.engine;
+		if (compilable == null) {
+			ScriptEngine engine = new ScriptEngineManager(ScriptCache.class.getClassLoader()).getEngineByName(this.engineName);
+			if (engine == null)
+				throw new ValidationException("No script engine available for '" + this.engineName + "'");
+			if (!(engine instanceof Compilable))
+				throw new ValidationException("Script engine for '" + this.engineName + "' does not support compilation");
+			this.engine = compilable = (Compilable) engine;
+		}
+		return compilable;
+	}
+
+	/**
+	 * Get the compiled script, compiles it if it was not compiled yet.
+	 * Concurrent calls with the same script wait for the first compilation to
+	 * finish.
+	 * 
+	 * @param script
+	 *            the script content
+	 * @return the shared compiled script
+	 * @throws ValidationException
+	 *             if the script could not be compiled
+	 */
+	public CompiledScript get(final String script) throws ValidationException {
+		FutureTask<CompiledScript> compiled = this.scripts.get(script);
+		if (compiled == null) {
+			final Compilable engine = getEngine();
+			FutureTask<CompiledScript> task = new FutureTask<>(new Callable<CompiledScript>() {
+				@Override
+				public CompiledScript call() throws Exception {
+					return engine.compile(script);
+				}
+			});
+			compiled = this.scripts.putIfAbsent(script, task);
+			if (compiled == null) {
+				compiled = task;
+				task.run();
+			}
+		}
+		try {
+			return compiled.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ValidationException("Interrupted while waiting for compilation", e);
+		} catch (ExecutionException e) {
+			// do not keep failed compilations
+			this.scripts.remove(script, compiled);
+			throw new ValidationException("Failed to compile script: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Evaluate a script with new bindings, so global variables set by one
+	 * evaluation are not visible to the next, regardless of the thread or
+	 * messenger evaluating the shared compiled script
+	 * 
+	 * @param script
+	 *            the script content
+	 * @param variables
+	 *            the variables to bind, e.g. the message as
+	 *            {@link havis.transform.Transformer#VARIABLE}
+	 * @return the result of the script
+	 * @throws ValidationException
+	 *             if the script could not be compiled
+	 * @throws TransportException
+	 *             if evaluation fails
+	 */
+	public Object eval(String script, Map<String, ?> variables) throws ValidationException, TransportException {
+		CompiledScript compiled = get(script);
+		Bindings bindings = compiled.getEngine().createBindings();
+		if (variables != null)
+			for (Entry<String, ?> variable : variables.entrySet())
+				bindings.put(variable.getKey(), variable.getValue());
+		try {
+			return compiled.eval(bindings);
+		} catch (ScriptException e) {
+			throw new TransportException("Failed to evaluate script: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the number of compiled scripts
+	 */
+	public int size() {
+		return this.scripts.size();
+	}
+
+	/**
+	 * Remove all compiled scripts
+	 */
+	public void clear() {
+		this.scripts.clear();
+	}
+}
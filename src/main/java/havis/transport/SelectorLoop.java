@@ -0,0 +1,287 @@
+package havis.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event loop running a {@link Selector} on a single daemon thread. All
+ * channels registered with the loop are served by this thread, tasks and
+ * timers are run on it as well, so channel state needs no locking. Messengers
+ * with {@link Messenger#TCP_NON_BLOCKING_PROPERTY} set share the loops of
+ * {@link #get(Map)}, a small fixed number of threads serves all their
+ * connections (see {@link NioConnection}).
+ */
+public class SelectorLoop implements Executor, Closeable {
+
+	/**
+	 * Handler for the ready operations of a registered channel
+	 */
+	public interface Handler {
+		/**
+		 * Called on the loop thread when the channel is ready for at least
+		 * one of the operations of interest
+		 * 
+		 * @param key
+		 *            the selection key of the channel
+		 */
+		void ready(SelectionKey key);
+	}
+
+	private static class Timer {
+		private final long due;
+		private final long sequence;
+		private final Runnable task;
+
+		private Timer(long due, long sequence, Runnable task) {
+			this.due = due;
+			this.sequence = sequence;
+			this.task = task;
+		}
+	}
+
+	private final static int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private final static ConcurrentMap<Integer, SelectorLoop[]> groups = new ConcurrentHashMap<>();
+	private final static AtomicInteger next = new AtomicInteger();
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>(16, new Comparator<Timer>() {
+		@Override
+		public int compare(Timer t1, Timer t2) {
+			int result = Long.compare(t1.due, t2.due);
+			return result != 0 ? result : Long.compare(t1.sequence, t2.sequence);
+		}
+	});
+	private long sequence;
+	private volatile boolean closed;
+
+	/**
+	 * Creates and starts a new loop
+	 * 
+	 * @param name
+	 *            the name of the loop thread
+	 * @throws IOException
+	 *             if the selector could not be opened
+	 */
+	public SelectorLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Get one of the shared loops, the number of loops is set by
+	 * {@link Messenger#TCP_IO_THREADS_PROPERTY} and defaults to half the
+	 * number of processors. Loops are assigned round-robin and must not be
+	 * closed.
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @return the loop
+	 * @throws ValidationException
+	 *             if the properties are not valid or the loop could not be
+	 *             started
+	 */
+	public static SelectorLoop get(Map<String, String> properties) throws ValidationException {
+		int threads = PropertyValues.getInt(properties, Messenger.TCP_IO_THREADS_PROPERTY, DEFAULT_THREADS);
+		if (threads < 1)
+			throw PropertyValues.invalid(Messenger.TCP_IO_THREADS_PROPERTY, Integer.valueOf(threads));
+		SelectorLoop[] group = groups.get(Integer.valueOf(threads));
+		if (group == null) {
+			synchronized (groups) {
+				group = groups.get(Integer.valueOf(threads));
+				if (group == null) {
+					group = new SelectorLoop[threads];
+					try {
+						for (int i = 0; i < threads; i++)
+							group[i] = new SelectorLoop("SelectorLoop-" + threads + "-" + (i + 1));
+					} catch (IOException e) {
+						for (SelectorLoop loop : group)
+							if (loop != null)
+								loop.close();
+						throw new ValidationException("Failed to start selector loop", e);
+					}
+					groups.put(Integer.valueOf(threads), group);
+				}
+			}
+		}
+		return group[(next.getAndIncrement() & Integer.MAX_VALUE) % group.length];
+	}
+
+	/**
+	 * @return true if the current thread is the loop thread, false otherwise
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	/**
+	 * Run a task on the loop thread
+	 * 
+	 * @param task
+	 *            the task
+	 * @throws RejectedExecutionException
+	 *             if the loop is closed
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (this.closed)
+			throw new RejectedExecutionException("Selector loop is closed");
+		this.tasks.add(task);
+		if (!inLoop())
+			this.selector.wakeup();
+	}
+
+	/**
+	 * Run a task on the loop thread after the specified delay
+	 * 
+	 * @param task
+	 *            the task
+	 * @param delay
+	 *            the delay in milliseconds
+	 * @throws RejectedExecutionException
+	 *             if the loop is closed
+	 */
+	public void schedule(final Runnable task, long delay) {
+		final long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				SelectorLoop.this.timers.add(new Timer(due, SelectorLoop.this.sequence++, task));
+			}
+		});
+	}
+
+	/**
+	 * Register a channel with the selector, must be called on the loop thread
+	 * 
+	 * @param channel
+	 *            the non-blocking channel
+	 * @param ops
+	 *            the operations of interest
+	 * @param handler
+	 *            the handler for ready operations
+	 * @return the selection key
+	 * @throws ClosedChannelException
+	 *             if the channel is closed
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+		if (!inLoop())
+			throw new IllegalStateException("Channels must be registered on the loop thread");
+		return channel.register(this.selector, ops, handler);
+	}
+
+	private void loop() {
+		try {
+			while (!this.closed) {
+				long timeout = 0;
+				Timer timer = this.timers.peek();
+				if (timer != null)
+					timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timer.due - System.nanoTime()));
+				if (this.tasks.isEmpty())
+					this.selector.select(timeout);
+				else
+					this.selector.selectNow();
+
+				for (Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator(); keys.hasNext();) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid())
+						run((Handler) key.attachment(), key);
+				}
+
+				Runnable task;
+				while ((task = this.tasks.poll()) != null)
+					run(task);
+
+				long now = System.nanoTime();
+				while ((timer = this.timers.peek()) != null && timer.due - now <= 0) {
+					this.timers.poll();
+					run(timer.task);
+				}
+			}
+		} catch (IOException e) {
+			this.closed = true;
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static void run(Handler handler, SelectionKey key) {
+		try {
+			handler.ready(key);
+		} catch (RuntimeException e) {
+			// keep the loop running, the handler is responsible for its channel
+		}
+	}
+
+	private static void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			// keep the loop running
+		}
+	}
+
+	/**
+	 * Wait for the loop thread to terminate after the loop was closed
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds
+	 * @return true if the loop thread terminated, false otherwise
+	 */
+	public boolean awaitTermination(long timeout) {
+		if (!this.closed)
+			return false;
+		try {
+			this.thread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return !this.thread.isAlive();
+	}
+
+	/**
+	 * Stop the loop and close all registered channels, pending tasks are
+	 * discarded
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.selector.wakeup();
+	}
+}
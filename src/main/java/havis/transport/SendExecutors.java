@@ -0,0 +1,304 @@
+package havis.transport;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running sends. With
+ * {@link Messenger#EXECUTION_PROPERTY} set to
+ * {@link Messenger#VIRTUAL_EXECUTION}, blocking transporters are run on
+ * virtual threads, so thousands of sends can be in flight without a large
+ * thread pool. The number of concurrent sends to a single endpoint is limited
+ * by {@link Messenger#MAX_CONCURRENCY_PROPERTY}, all messengers of the
+ * endpoint share one limiter with a bounded queue. Transformation can run on
+ * a separate worker pool, see {@link Messenger#TRANSFORMER_WORKERS_PROPERTY}.
+ */
+public class SendExecutors {
+
+	private final static int DEFAULT_QUEUE_SIZE = 10000;
+
+	private static volatile ExecutorService virtual;
+	private final static Map<String, WeakReference<Limiter>> limiters = new HashMap<>();
+	private final static ConcurrentMap<Integer, ExecutorService> transformers = new ConcurrentHashMap<>();
+
+	private SendExecutors() {
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads, false otherwise
+	 */
+	public static boolean isVirtualSupported() {
+		return newVirtualMethod() != null;
+	}
+
+	private static Method newVirtualMethod() {
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the shared executor starting a new virtual thread for each task.
+	 * The executor must not be shut down.
+	 * 
+	 * @return the shared executor
+	 * @throws ValidationException
+	 *             if the runtime does not support virtual threads
+	 */
+	public static ExecutorService virtual() throws ValidationException {
+		ExecutorService executor = virtual;
+		if (executor == null) {
+			synchronized (SendExecutors.class) {
+				executor = virtual;
+				if (executor == null) {
+					Method method = newVirtualMethod();
+					if (method == null)
+						throw new ValidationException("Virtual threads are not supported by this Java runtime");
+					try {
+						virtual = executor = (ExecutorService) method.invoke(null);
+					} catch (ReflectiveOperationException e) {
+						throw new ValidationException("Failed to create virtual thread executor", e);
+					}
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Get the executor for the sends of a messenger
+	 * 
+	 * @param uri
+	 *            the URI of the messenger, sends to the same normalized URI
+	 *            share the limit of {@link Messenger#MAX_CONCURRENCY_PROPERTY},
+	 *            so all messengers of the endpoint must use the same limit and
+	 *            queue size
+	 * @param properties
+	 *            the properties of the messenger
+	 * @param platform
+	 *            the executor to use if virtual threads are not chosen
+	 * @return the executor, limited by
+	 *         {@link Messenger#MAX_CONCURRENCY_PROPERTY} if set
+	 * @throws ValidationException
+	 *             if the properties are not valid or the limit or queue size
+	 *             differ from those of another messenger of the endpoint
+	 */
+	public static Executor get(URI uri, Map<String, String> properties, Executor platform) throws ValidationException {
+		String execution = PropertyValues.get(properties, Messenger.EXECUTION_PROPERTY);
+		Executor executor = Messenger.VIRTUAL_EXECUTION.equalsIgnoreCase(execution) ? virtual() : platform;
+		if (PropertyValues.get(properties, Messenger.MAX_CONCURRENCY_PROPERTY) == null)
+			return executor;
+		int limit = PropertyValues.getInt(properties, Messenger.MAX_CONCURRENCY_PROPERTY, 0);
+		if (limit < 1)
+			throw PropertyValues.invalid(Messenger.MAX_CONCURRENCY_PROPERTY, Integer.valueOf(limit));
+		int queueSize = PropertyValues.getInt(properties, Messenger.MAX_CONCURRENCY_QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+		if (queueSize < 0)
+			throw PropertyValues.invalid(Messenger.MAX_CONCURRENCY_QUEUE_SIZE_PROPERTY, Integer.valueOf(queueSize));
+		String key = TransporterRegistry.normalize(uri).toString();
+		Limiter limiter;
+		synchronized (limiters) {
+			// remove limiters no longer used by any messenger
+			for (Iterator<WeakReference<Limiter>> i = limiters.values().iterator(); i.hasNext();)
+				if (i.next().get() == null)
+					i.remove();
+			WeakReference<Limiter> reference = limiters.get(key);
+			limiter = reference != null ? reference.get() : null;
+			if (limiter == null)
+				limiters.put(key, new WeakReference<>(limiter = new Limiter(limit, queueSize)));
+			else if (limiter.limit != limit || limiter.queueSize != queueSize)
+				throw new ValidationException("Concurrency of " + key + " is already limited to " + limiter.limit + " with queue size "
+						+ limiter.queueSize + ", cannot limit it to " + limit + " with queue size " + queueSize);
+		}
+		return new LimitedExecutor(executor, limiter);
+	}
+
+	/**
+	 * Get the shared transformer worker pool of the size set by
+	 * {@link Messenger#TRANSFORMER_WORKERS_PROPERTY}. Messengers with the same
+	 * number of workers share one pool of daemon threads, which must not be
+	 * shut down by the caller, see {@link #shutdown()}.
+	 * 
+	 * @param properties
+	 *            the properties of the messenger
+	 * @return the worker pool or null if messages are transformed on the
+	 *         sending thread
+	 * @throws ValidationException
+	 *             if the properties are not valid
+	 */
+	public static ExecutorService transformers(Map<String, String> properties) throws ValidationException {
+		final int workers = PropertyValues.getInt(properties, Messenger.TRANSFORMER_WORKERS_PROPERTY, 0);
+		if (workers < 0)
+			throw PropertyValues.invalid(Messenger.TRANSFORMER_WORKERS_PROPERTY, Integer.valueOf(workers));
+		if (workers == 0)
+			return null;
+		ExecutorService executor = transformers.get(Integer.valueOf(workers));
+		if (executor == null) {
+			synchronized (transformers) {
+				executor = transformers.get(Integer.valueOf(workers));
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "Transformer-" + workers + "-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+					transformers.put(Integer.valueOf(workers), executor);
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Shut down the shared transformer worker pools, running transformations
+	 * are finished, further ones are rejected. Must be called when the bundle
+	 * using the pools is stopped, e.g. from its bundle activator, as the
+	 * worker threads would otherwise keep the class loader of the bundle
+	 * reachable. Later calls to {@link #transformers(Map)} create new pools.
+	 */
+	public static void shutdown() {
+		synchronized (transformers) {
+			for (ExecutorService executor : transformers.values())
+				executor.shutdown();
+			transformers.clear();
+		}
+	}
+
+	/**
+	 * Limit the number of concurrently running tasks, further tasks are
+	 * queued without blocking the caller
+	 * 
+	 * @param executor
+	 *            the executor to run the tasks on
+	 * @param limit
+	 *            the maximum number of concurrently running tasks
+	 * @param queueSize
+	 *            the maximum number of queued tasks, further tasks are
+	 *            rejected with a {@link RejectedExecutionException}
+	 * @return the limited executor
+	 */
+	public static Executor limit(Executor executor, int limit, int queueSize) {
+		return new LimitedExecutor(executor, new Limiter(limit, queueSize));
+	}
+
+	private static class LimitedExecutor implements Executor {
+
+		private final Executor executor;
+		private final Limiter limiter;
+
+		private LimitedExecutor(Executor executor, Limiter limiter) {
+			this.executor = executor;
+			this.limiter = limiter;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			this.limiter.execute(this.executor, command);
+		}
+	}
+
+	/**
+	 * Limit shared by the executors of all messengers of an endpoint, queued
+	 * tasks are run on the executor they were submitted to
+	 */
+	private static class Limiter {
+
+		private final int limit;
+		private final int queueSize;
+		private final Deque<Task> queue = new ArrayDeque<>();
+		private int active;
+
+		private Limiter(int limit, int queueSize) {
+			if (limit < 1)
+				throw new IllegalArgumentException("limit must be greater than 0");
+			if (queueSize < 0)
+				throw new IllegalArgumentException("queueSize must not be negative");
+			this.limit = limit;
+			this.queueSize = queueSize;
+		}
+
+		private void execute(Executor executor, Runnable command) {
+			synchronized (this) {
+				if (this.active >= this.limit) {
+					if (this.queue.size() >= this.queueSize)
+						throw new RejectedExecutionException("Too many sends waiting for the endpoint");
+					this.queue.add(new Task(executor, command));
+					return;
+				}
+				this.active++;
+			}
+			start(executor, command);
+		}
+
+		private void start(Executor executor, final Runnable command) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							command.run();
+						} finally {
+							next();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				next();
+				throw e;
+			}
+		}
+
+		private void next() {
+			Task next;
+			synchronized (this) {
+				next = this.queue.poll();
+				if (next == null) {
+					this.active--;
+					return;
+				}
+			}
+			try {
+				start(next.executor, next.command);
+			} catch (RuntimeException e) {
+				// rejected by its executor, e.g. because it was shut down
+				if (next.command instanceof Future)
+					((Future<?>) next.command).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Task queued by a {@link Limiter} with the executor to run it on
+	 */
+	private static class Task {
+
+		private final Executor executor;
+		private final Runnable command;
+
+		private Task(Executor executor, Runnable command) {
+			this.executor = executor;
+			this.command = command;
+		}
+	}
+}
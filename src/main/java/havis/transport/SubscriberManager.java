@@ -74,10 +74,36 @@ public interface SubscriberManager {
 	public Subscriber get(String id);
 
 	/**
-	 * @return the reference to the list of subscribers
+	 * @return the reference to the list of subscribers. Implementations based
+	 *         on {@link SubscriberRegistry} return an immutable snapshot.
 	 */
 	public Collection<Subscriber> getSubscribers();
 
+	/**
+	 * Get the number of messages queued for a subscription, see
+	 * {@link Messenger#QUEUE_SIZE_PROPERTY}
+	 * 
+	 * @param id
+	 *            the ID of the subscription
+	 * @return the number of queued messages or -1 if the subscription does
+	 *         not exist or has no queue
+	 */
+	public default int getQueueDepth(String id) {
+		return -1;
+	}
+
+	/**
+	 * Get the runtime statistics of a subscription
+	 * 
+	 * @param id
+	 *            the ID of the subscription
+	 * @return the statistics of the messenger of the subscription or null if
+	 *         the subscription does not exist or has no statistics
+	 */
+	public default MessengerStatistics getStatistics(String id) {
+		return null;
+	}
+
 	/**
 	 * @return true if at least one subscriber is enabled, false otherwise.
 	 */
@@ -89,13 +115,23 @@ public interface SubscriberManager {
 	public boolean hasListeners();
 
 	/**
-	 * Asynchronously send a message to all enabled subscribers and listeners
+	 * Asynchronously send a message to all enabled subscribers and listeners.
+	 * The message is passed to the messengers with a new
+	 * {@link EncodingCache}, so it is only transformed and marshalled once per
+	 * distinct MIME type and transformer settings. Subscriptions with
+	 * {@link Messenger#CONFLATION_WINDOW_MS_PROPERTY} set keep the task of the
+	 * message in their {@link Conflator} under the key of the message (see
+	 * {@link Conflator#add(Object, Object)}) until the window closes, the task
+	 * is cancelled if the message is replaced by a later one with the same
+	 * key.
 	 * 
 	 * @param message
 	 *            the message to send
 	 * @return map of {@link Subscription} and {@link FutureSendTask} to wait
 	 *         for sending to finish and handle exceptions of each send request.
 	 *         You can safely ignore the result, exceptions will be logged.
+	 *         Use {@link FutureSendTask#allOf(java.util.Collection)} on the
+	 *         values to wait for all sending attempts without blocking.
 	 */
 	public Map<Subscription, FutureSendTask> send(Object message);
 
@@ -115,7 +151,9 @@ public interface SubscriberManager {
 
 	/**
 	 * Asynchronously send a message to all enabled subscribers and listeners,
-	 * which are accepted by the specified filter
+	 * which are accepted by the specified filter. If the filter is an
+	 * {@link IndexedSubscriberFilter}, only the matching subscriptions are
+	 * visited.
 	 * 
 	 * @param message
 	 *            the message to send
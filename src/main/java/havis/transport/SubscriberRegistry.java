@@ -0,0 +1,257 @@
+package havis.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registry of subscriptions publishing immutable snapshots. Changes copy the
+ * current snapshot and atomically replace it, so sending can iterate over a
+ * consistent snapshot without any locks while subscriptions are added,
+ * updated or removed. Intended for {@link SubscriberManager} implementations
+ * where subscriptions are read far more often than changed. Registered
+ * subscriptions must not be modified, pass a modified copy to
+ * {@link #update(Subscription)} instead.
+ * 
+ * @param <S>
+ *            type of the subscriptions
+ */
+public class SubscriberRegistry<S extends Subscription> {
+
+	/**
+	 * Immutable snapshot of the subscriptions
+	 * 
+	 * @param <S>
+	 *            type of the subscriptions
+	 */
+	public static class Snapshot<S extends Subscription> {
+
+		private final static String ID = "id";
+		private final static String PROPERTY = "property:";
+
+		private final Map<String, S> subscriptions;
+		private final Collection<S> values;
+		private final List<S> list;
+		private final boolean enabled;
+
+		/**
+		 * Inverted indexes of the values of the ID and each property key
+		 * used in a filter, to the positions of the subscriptions. Built on
+		 * first use.
+		 */
+		private final ConcurrentMap<String, NavigableMap<String, int[]>> indexes = new ConcurrentHashMap<>();
+
+		private Snapshot(Map<String, S> subscriptions) {
+			this.subscriptions = Collections.unmodifiableMap(subscriptions);
+			this.values = Collections.unmodifiableCollection(subscriptions.values());
+			this.list = new ArrayList<>(subscriptions.values());
+			boolean enabled = false;
+			for (S subscription : subscriptions.values())
+				enabled |= subscription.isEnable();
+			this.enabled = enabled;
+		}
+
+		/**
+		 * @return the subscriptions in order of their registration
+		 */
+		public Collection<S> getSubscriptions() {
+			return this.values;
+		}
+
+		/**
+		 * @param id
+		 *            the ID of the subscription
+		 * @return the subscription or null if there is no subscription with
+		 *         the specified ID
+		 */
+		public S get(String id) {
+			return this.subscriptions.get(id);
+		}
+
+		/**
+		 * Select the subscriptions accepted by the filter, using an inverted
+		 * index instead of evaluating the filter for each subscription
+		 * 
+		 * @param filter
+		 *            the filter
+		 * @return the accepted subscriptions in order of their registration
+		 */
+		public List<S> select(IndexedSubscriberFilter filter) {
+			NavigableMap<String, int[]> index = index(filter);
+			int[] positions;
+			if (filter.isPrefix()) {
+				List<int[]> matches = new ArrayList<>();
+				int size = 0;
+				for (Map.Entry<String, int[]> entry : index.tailMap(filter.getValue(), true).entrySet()) {
+					if (!entry.getKey().startsWith(filter.getValue()))
+						break;
+					matches.add(entry.getValue());
+					size += entry.getValue().length;
+				}
+				positions = new int[size];
+				int i = 0;
+				for (int[] match : matches) {
+					System.arraycopy(match, 0, positions, i, match.length);
+					i += match.length;
+				}
+				Arrays.sort(positions);
+			} else {
+				positions = index.get(filter.getValue());
+				if (positions == null)
+					return Collections.emptyList();
+			}
+			List<S> result = new ArrayList<>(positions.length);
+			for (int position : positions)
+				result.add(this.list.get(position));
+			return result;
+		}
+
+		private NavigableMap<String, int[]> index(IndexedSubscriberFilter filter) {
+			String key = filter.getKey() != null ? PROPERTY + filter.getKey() : ID;
+			NavigableMap<String, int[]> index = this.indexes.get(key);
+			if (index == null) {
+				Map<String, List<Integer>> values = new TreeMap<>();
+				for (int i = 0; i < this.list.size(); i++) {
+					String value = filter.valueOf(this.list.get(i));
+					if (value != null) {
+						List<Integer> positions = values.get(value);
+						if (positions == null)
+							values.put(value, positions = new ArrayList<>(1));
+						positions.add(Integer.valueOf(i));
+					}
+				}
+				index = new TreeMap<>();
+				for (Map.Entry<String, List<Integer>> entry : values.entrySet()) {
+					int[] positions = new int[entry.getValue().size()];
+					for (int i = 0; i < positions.length; i++)
+						positions[i] = entry.getValue().get(i).intValue();
+					index.put(entry.getKey(), positions);
+				}
+				NavigableMap<String, int[]> existing = this.indexes.putIfAbsent(key, index);
+				if (existing != null)
+					index = existing;
+			}
+			return index;
+		}
+
+		/**
+		 * @return the number of subscriptions
+		 */
+		public int size() {
+			return this.subscriptions.size();
+		}
+
+		/**
+		 * @return true if at least one subscription is enabled, false
+		 *         otherwise
+		 */
+		public boolean hasEnabled() {
+			return this.enabled;
+		}
+	}
+
+	private final AtomicReference<Snapshot<S>> snapshot = new AtomicReference<>(new Snapshot<S>(new LinkedHashMap<String, S>()));
+
+	/**
+	 * @return the current snapshot, which is not affected by later changes
+	 */
+	public Snapshot<S> snapshot() {
+		return this.snapshot.get();
+	}
+
+	/**
+	 * @param id
+	 *            the ID of the subscription
+	 * @return the subscription or null if there is no subscription with the
+	 *         specified ID
+	 */
+	public S get(String id) {
+		return this.snapshot.get().get(id);
+	}
+
+	/**
+	 * Add a subscription
+	 * 
+	 * @param subscription
+	 *            the subscription with an ID
+	 * @throws ValidationException
+	 *             if the ID is missing or already registered
+	 */
+	public void add(S subscription) throws ValidationException {
+		if (subscription.getId() == null)
+			throw new ValidationException("No ID specified");
+		while (true) {
+			Snapshot<S> current = this.snapshot.get();
+			if (current.subscriptions.containsKey(subscription.getId()))
+				throw new ValidationException("Subscription with ID '" + subscription.getId() + "' already exists");
+			Map<String, S> subscriptions = new LinkedHashMap<>(current.subscriptions);
+			subscriptions.put(subscription.getId(), subscription);
+			if (this.snapshot.compareAndSet(current, new Snapshot<S>(subscriptions)))
+				return;
+		}
+	}
+
+	/**
+	 * Replace a subscription with the same ID, keeping its position
+	 * 
+	 * @param subscription
+	 *            the new subscription
+	 * @return the replaced subscription
+	 * @throws ValidationException
+	 *             if the ID is missing or not registered
+	 */
+	public S update(S subscription) throws ValidationException {
+		if (subscription.getId() == null)
+			throw new ValidationException("No ID specified");
+		while (true) {
+			Snapshot<S> current = this.snapshot.get();
+			S replaced = current.subscriptions.get(subscription.getId());
+			if (replaced == null)
+				throw new ValidationException("Unknown subscription ID '" + subscription.getId() + "'");
+			Map<String, S> subscriptions = new LinkedHashMap<>(current.subscriptions);
+			subscriptions.put(subscription.getId(), subscription);
+			if (this.snapshot.compareAndSet(current, new Snapshot<S>(subscriptions)))
+				return replaced;
+		}
+	}
+
+	/**
+	 * Remove a subscription
+	 * 
+	 * @param id
+	 *            the ID of the subscription
+	 * @return the removed subscription
+	 * @throws ValidationException
+	 *             if the ID is not registered
+	 */
+	public S remove(String id) throws ValidationException {
+		while (true) {
+			Snapshot<S> current = this.snapshot.get();
+			S removed = current.subscriptions.get(id);
+			if (removed == null)
+				throw new ValidationException("Unknown subscription ID '" + id + "'");
+			Map<String, S> subscriptions = new LinkedHashMap<>(current.subscriptions);
+			subscriptions.remove(id);
+			if (this.snapshot.compareAndSet(current, new Snapshot<S>(subscriptions)))
+				return removed;
+		}
+	}
+
+	/**
+	 * Remove all subscriptions
+	 * 
+	 * @return the snapshot of the removed subscriptions
+	 */
+	public Snapshot<S> clear() {
+		return this.snapshot.getAndSet(new Snapshot<S>(new LinkedHashMap<String, S>()));
+	}
+}
@@ -1,6 +1,7 @@
 package havis.transport;
 
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
 
 import javax.net.SocketFactory;
@@ -75,7 +76,42 @@ public interface Transporter<T> {
 	void send(Object message, String name, String path, Map<String, String> properties) throws TransportException;
 
 	/**
-	 * Adds a callback for a specific path
+	 * @return true if this {@link Transporter} delivers a batch of messages as
+	 *         a single payload or transaction, false if
+	 *         {@link #sendBatch(List)} sends the messages one by one
+	 */
+	default boolean supportsBatch() {
+		return false;
+	}
+
+	/**
+	 * Send a batch of messages. Transporters supporting batches send all
+	 * messages as one payload or within one transaction, otherwise the
+	 * messages are sent one by one in the given order.
+	 * 
+	 * @param messages
+	 *            the messages to send
+	 * @throws TransportException
+	 *             if transport fails
+	 */
+	default void sendBatch(List<?> messages) throws TransportException {
+		for (Object message : messages)
+			send(message);
+	}
+
+	/**
+	 * @return true if this {@link Transporter} marshals messages directly into
+	 *         the transport stream when {@link Messenger#STREAMING_PROPERTY}
+	 *         is set, false if the payload is always built in memory
+	 */
+	default boolean supportsStreaming() {
+		return false;
+	}
+
+	/**
+	 * Adds a callback for a specific path. Transporters supporting MQTT style
+	 * wildcards in paths dispatch arrived messages through a
+	 * {@link PathRouter}.
 	 * 
 	 * @param path
 	 *            The path
@@ -0,0 +1,476 @@
+package havis.transport;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.net.SocketFactory;
+
+/**
+ * Registry of transporters shared by subscribers with the same endpoint.
+ * Transporters are keyed by the message class, the normalized URI, the MIME
+ * type, all transport properties (see {@link Transporter#PREFIX}) and the
+ * socket factory, so subscribers with the same key share one physical
+ * connection, e.g. one MQTT session or JDBC connection. Each
+ * {@link #acquire(Class, URI, Map, Factory)} returns a handle counting as one
+ * reference, the shared transporter is disposed when the last handle is
+ * disposed. Messengers use the registry if
+ * {@link Messenger#SHARED_TRANSPORTER_PROPERTY} is set.
+ */
+public class TransporterRegistry {
+
+	/**
+	 * Factory to create transporters
+	 * 
+	 * @param <T>
+	 *            type of message
+	 */
+	public interface Factory<T> {
+		/**
+		 * Create a new, not yet initialized transporter
+		 * 
+		 * @return the transporter
+		 * @throws ValidationException
+		 *             if the transporter could not be created
+		 */
+		Transporter<T> create() throws ValidationException;
+	}
+
+	private final static TransporterRegistry DEFAULT = new TransporterRegistry();
+
+	private static class Shared {
+		private Transporter<?> transporter;
+		private SocketFactory socketFactory;
+		private volatile int references;
+	}
+
+	private static class Path {
+		private final String path;
+		private final Callback callback;
+
+		private Path(String path, Callback callback) {
+			this.path = path;
+			this.callback = callback;
+		}
+	}
+
+	private final Map<List<Object>, Shared> transporters = new HashMap<>();
+
+	/**
+	 * @return the default registry
+	 */
+	public static TransporterRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Normalize a URI, i.e. convert scheme and host to lower case, remove the
+	 * default port of well known schemes and normalize the path. User info,
+	 * path and query are kept as they are, escaped octets are not decoded, so
+	 * distinct endpoints are never merged.
+	 * 
+	 * @param uri
+	 *            the URI
+	 * @return the normalized URI
+	 */
+	public static URI normalize(URI uri) {
+		uri = uri.normalize();
+		if (uri.isOpaque() || uri.getScheme() == null)
+			return uri;
+		StringBuilder normalized = new StringBuilder(uri.getScheme().toLowerCase(Locale.ENGLISH)).append(':');
+		String host = uri.getHost();
+		if (host == null) {
+			normalized.append(uri.getRawSchemeSpecificPart());
+		} else {
+			String scheme = uri.getScheme().toLowerCase(Locale.ENGLISH);
+			int port = uri.getPort();
+			if (port == 80 && scheme.equals("http") || port == 443 && scheme.equals("https") || port == 1883 && scheme.equals("mqtt")
+					|| port == 8883 && scheme.equals("mqtts"))
+				port = -1;
+			normalized.append("//");
+			if (uri.getRawUserInfo() != null)
+				normalized.append(uri.getRawUserInfo()).append('@');
+			normalized.append(host.toLowerCase(Locale.ENGLISH));
+			if (port != -1)
+				normalized.append(':').append(port);
+			normalized.append(uri.getRawPath());
+			if (uri.getRawQuery() != null)
+				normalized.append('?').append(uri.getRawQuery());
+		}
+		if (uri.getRawFragment() != null)
+			normalized.append('#').append(uri.getRawFragment());
+		try {
+			return new URI(normalized.toString());
+		} catch (URISyntaxException e) {
+			return uri;
+		}
+	}
+
+	private static List<Object> key(Class<?> clazz, URI uri, Map<String, String> properties, SocketFactory socketFactory) {
+		Map<String, String> settings = new TreeMap<>();
+		if (properties != null) {
+			for (Entry<String, String> entry : properties.entrySet()) {
+				if (entry.getKey().startsWith(Transporter.PREFIX) || entry.getKey().equals(Messenger.MIMETYPE_PROPERTY))
+					settings.put(entry.getKey(), entry.getValue());
+			}
+		}
+		List<Object> key = new ArrayList<>(4);
+		key.add(clazz);
+		key.add(normalize(uri).toString());
+		key.add(settings);
+		// socket factories are compared by identity
+		key.add(socketFactory != null ? new IdentityKey(socketFactory) : null);
+		return key;
+	}
+
+	private static class IdentityKey {
+		private final Object value;
+
+		private IdentityKey(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.value);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey) obj).value == this.value;
+		}
+	}
+
+	/**
+	 * Acquire a reference to the shared transporter of the endpoint, creates
+	 * and initializes the transporter if it does not exist yet
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param uri
+	 *            the URI to send to
+	 * @param properties
+	 *            the properties containing settings for transport
+	 * @param factory
+	 *            the factory to create the transporter
+	 * @return a handle to the shared transporter, which must be disposed when
+	 *         no longer used
+	 * @throws ValidationException
+	 *             if the transporter could not be created or initialized
+	 */
+	public <T> Transporter<T> acquire(Class<T> clazz, URI uri, Map<String, String> properties, Factory<T> factory) throws ValidationException {
+		return acquire(clazz, uri, properties, null, factory);
+	}
+
+	/**
+	 * Acquire a reference to the shared transporter of the endpoint using the
+	 * specified socket factory, creates and initializes the transporter if it
+	 * does not exist yet
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param uri
+	 *            the URI to send to
+	 * @param properties
+	 *            the properties containing settings for transport
+	 * @param socketFactory
+	 *            the socket factory to set on the transporter, null to use the
+	 *            default of the transporter
+	 * @param factory
+	 *            the factory to create the transporter
+	 * @return a handle to the shared transporter, which must be disposed when
+	 *         no longer used
+	 * @throws ValidationException
+	 *             if the transporter could not be created or initialized
+	 */
+	public <T> Transporter<T> acquire(Class<T> clazz, URI uri, Map<String, String> properties, SocketFactory socketFactory, Factory<T> factory)
+			throws ValidationException {
+		List<Object> key = key(clazz, uri, properties, socketFactory);
+		return new Handle<T>(this, clazz, uri, properties, factory, key, reference(key, clazz, uri, properties, socketFactory, factory));
+	}
+
+	private <T> Shared reference(List<Object> key, Class<T> clazz, URI uri, Map<String, String> properties, SocketFactory socketFactory,
+			Factory<T> factory) throws ValidationException {
+		Shared shared;
+		synchronized (this.transporters) {
+			shared = this.transporters.get(key);
+			if (shared == null)
+				this.transporters.put(key, shared = new Shared());
+			shared.references++;
+		}
+		boolean initialized = false;
+		try {
+			synchronized (shared) {
+				if (shared.transporter == null) {
+					Transporter<T> transporter = factory.create();
+					transporter.init(clazz, uri, properties);
+					if (socketFactory != null) {
+						try {
+							transporter.setSocketFactory(socketFactory);
+						} catch (TransportException e) {
+							transporter.dispose();
+							throw new ValidationException("Failed to set socket factory: " + e.getMessage(), e);
+						}
+					}
+					shared.transporter = transporter;
+					shared.socketFactory = socketFactory;
+				}
+			}
+			initialized = true;
+		} finally {
+			if (!initialized)
+				release(key, shared);
+		}
+		return shared;
+	}
+
+	private void release(List<Object> key, Shared shared) {
+		synchronized (this.transporters) {
+			if (--shared.references > 0)
+				return;
+			if (this.transporters.get(key) == shared)
+				this.transporters.remove(key);
+		}
+		synchronized (shared) {
+			if (shared.transporter != null) {
+				shared.transporter.dispose();
+				shared.transporter = null;
+			}
+		}
+	}
+
+	/**
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param uri
+	 *            the URI
+	 * @param properties
+	 *            the properties containing settings for transport
+	 * @return the number of references to the shared transporter of the
+	 *         endpoint, 0 if there is none
+	 */
+	public int getReferences(Class<?> clazz, URI uri, Map<String, String> properties) {
+		return getReferences(clazz, uri, properties, null);
+	}
+
+	/**
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param uri
+	 *            the URI
+	 * @param properties
+	 *            the properties containing settings for transport
+	 * @param socketFactory
+	 *            the socket factory of the transporter, null for the default
+	 * @return the number of references to the shared transporter of the
+	 *         endpoint, 0 if there is none
+	 */
+	public int getReferences(Class<?> clazz, URI uri, Map<String, String> properties, SocketFactory socketFactory) {
+		synchronized (this.transporters) {
+			Shared shared = this.transporters.get(key(clazz, uri, properties, socketFactory));
+			return shared != null ? shared.references : 0;
+		}
+	}
+
+	/**
+	 * @return the number of shared transporters
+	 */
+	public int size() {
+		synchronized (this.transporters) {
+			return this.transporters.size();
+		}
+	}
+
+	/**
+	 * Handle to a shared transporter, counting as one reference. Paths added
+	 * by a handle are removed when the handle is disposed.
+	 */
+	private static class Handle<T> implements Transporter<T> {
+
+		private final TransporterRegistry registry;
+		private final Class<T> clazz;
+		private final URI uri;
+		private final Map<String, String> properties;
+		private final Factory<T> factory;
+		private final List<Path> paths = new ArrayList<>();
+		private List<Object> key;
+		private Shared shared;
+		private boolean disposed;
+
+		private Handle(TransporterRegistry registry, Class<T> clazz, URI uri, Map<String, String> properties, Factory<T> factory, List<Object> key,
+				Shared shared) {
+			this.registry = registry;
+			this.clazz = clazz;
+			this.uri = uri;
+			this.properties = properties;
+			this.factory = factory;
+			this.key = key;
+			this.shared = shared;
+		}
+
+		private synchronized Shared shared() {
+			return this.shared;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Transporter<T> transporter() throws TransportException {
+			Shared shared;
+			synchronized (this) {
+				if (this.disposed)
+					throw new TransportException("Transporter has been disposed");
+				shared = this.shared;
+			}
+			synchronized (shared) {
+				if (shared.transporter == null)
+					throw new TransportException("Transporter has been disposed");
+				return (Transporter<T>) shared.transporter;
+			}
+		}
+
+		@Override
+		public void init(Class<T> clazz, URI uri, Map<String, String> properties) throws ValidationException {
+			throw new ValidationException("Shared transporter is already initialized");
+		}
+
+		@Override
+		public boolean supportsSocketFactory() {
+			Shared shared = shared();
+			synchronized (shared) {
+				return shared.transporter != null && shared.transporter.supportsSocketFactory();
+			}
+		}
+
+		/**
+		 * Sets the socket factory. Transporters are shared per socket factory,
+		 * so if the factory differs from the one of the current transporter,
+		 * the handle moves to the shared transporter of the endpoint with the
+		 * specified factory, which is created if it does not exist yet. Paths
+		 * added before are moved along.
+		 */
+		@Override
+		public synchronized void setSocketFactory(SocketFactory socketFactory) throws TransportException {
+			Transporter<T> current = transporter();
+			synchronized (this.shared) {
+				if (this.shared.socketFactory == socketFactory)
+					return;
+			}
+			if (!current.supportsSocketFactory())
+				throw new TransportException("Socket factory is not supported by the transporter");
+			List<Object> key = key(this.clazz, this.uri, this.properties, socketFactory);
+			Shared shared;
+			try {
+				shared = this.registry.reference(key, this.clazz, this.uri, this.properties, socketFactory, this.factory);
+			} catch (ValidationException e) {
+				throw new TransportException(e.getMessage(), e);
+			}
+			Transporter<?> transporter;
+			synchronized (shared) {
+				transporter = shared.transporter;
+			}
+			int added = 0;
+			try {
+				for (; added < this.paths.size(); added++)
+					transporter.addPath(this.paths.get(added).path, this.paths.get(added).callback);
+			} catch (TransportException e) {
+				removePaths(transporter, this.paths.subList(0, added));
+				this.registry.release(key, shared);
+				throw e;
+			}
+			removePaths(current, this.paths);
+			this.registry.release(this.key, this.shared);
+			this.key = key;
+			this.shared = shared;
+		}
+
+		@Override
+		public void send(Object message) throws TransportException {
+			transporter().send(message);
+		}
+
+		@Override
+		public void send(Object message, String name, String path, Map<String, String> properties) throws TransportException {
+			transporter().send(message, name, path, properties);
+		}
+
+		@Override
+		public boolean supportsBatch() {
+			Shared shared = shared();
+			synchronized (shared) {
+				return shared.transporter != null && shared.transporter.supportsBatch();
+			}
+		}
+
+		@Override
+		public void sendBatch(List<?> messages) throws TransportException {
+			transporter().sendBatch(messages);
+		}
+
+		@Override
+		public boolean supportsStreaming() {
+			Shared shared = shared();
+			synchronized (shared) {
+				return shared.transporter != null && shared.transporter.supportsStreaming();
+			}
+		}
+
+		@Override
+		public synchronized void addPath(String path, Callback callback) throws TransportException {
+			transporter().addPath(path, callback);
+			this.paths.add(new Path(path, callback));
+		}
+
+		@Override
+		public synchronized void removePath(String path, Callback callback) throws TransportException {
+			transporter().removePath(path, callback);
+			for (int i = 0; i < this.paths.size(); i++) {
+				if (this.paths.get(i).path.equals(path) && this.paths.get(i).callback == callback) {
+					this.paths.remove(i);
+					break;
+				}
+			}
+		}
+
+		private static void removePaths(Transporter<?> transporter, List<Path> paths) {
+			for (Path path : paths) {
+				try {
+					transporter.removePath(path.path, path.callback);
+				} catch (TransportException e) {
+					// ignore, transporter is going away or keeps running
+				}
+			}
+		}
+
+		/**
+		 * Removes the paths of this handle and releases the reference, the
+		 * shared transporter is disposed with the last reference
+		 */
+		@Override
+		public void dispose() {
+			List<Path> paths;
+			List<Object> key;
+			Shared shared;
+			synchronized (this) {
+				if (this.disposed)
+					return;
+				this.disposed = true;
+				paths = new ArrayList<>(this.paths);
+				this.paths.clear();
+				key = this.key;
+				shared = this.shared;
+			}
+			Transporter<?> transporter;
+			synchronized (shared) {
+				transporter = shared.transporter;
+			}
+			if (transporter != null)
+				removePaths(transporter, paths);
+			this.registry.release(key, shared);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package havis.transport;
+
+import havis.transport.MarshallerPool.PooledMarshaller;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Thread-safe XML marshaller for {@link Messenger#DEFAULT_MIMETYPE}, backed
+ * by the shared {@link MarshallerPool} of the message class. Registered in
+ * the default {@link CodecRegistry} for text/xml and application/xml.
+ * {@link #stream(Object, OutputStream)} writes the document through a
+ * {@link XMLStreamWriter} for {@link Messenger#STREAMING_PROPERTY}. JAXB
+ * only writes to streams, so the {@link ChannelMarshaller} methods marshal
+ * into a stream writing straight into the pooled buffers or the channel.
+ * Messages of a class without {@link XmlRootElement} are written as an
+ * element named after the class, and read back by their declared type
+ * regardless of the element name.
+ */
+public class XmlMarshaller<T> implements ChannelMarshaller<T> {
+
+	private final static XMLOutputFactory factory = XMLOutputFactory.newFactory();
+
+	private final Class<T> clazz;
+	private final MarshallerPool pool;
+	private final QName name;
+
+	/**
+	 * Creates a new marshaller
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @throws ValidationException
+	 *             if the JAXB context could not be created for the class
+	 */
+	public XmlMarshaller(Class<T> clazz) throws ValidationException {
+		this(clazz, JaxbContextCache.getPool(clazz));
+	}
+
+	/**
+	 * Creates a new marshaller
+	 * 
+	 * @param clazz
+	 *            the {@link Class} of the messages
+	 * @param pool
+	 *            the pool to borrow marshallers from
+	 */
+	public XmlMarshaller(Class<T> clazz, MarshallerPool pool) {
+		this.clazz = clazz;
+		this.pool = pool;
+		if (clazz.isAnnotationPresent(XmlRootElement.class))
+			this.name = null;
+		else {
+			String name = clazz.getSimpleName();
+			this.name = new QName(name.substring(0, 1).toLowerCase() + name.substring(1));
+		}
+	}
+
+	/**
+	 * @return the pool of the marshaller
+	 */
+	public MarshallerPool getPool() {
+		return this.pool;
+	}
+
+	@Override
+	public void marshal(T message, OutputStream target) throws TransportException {
+		try (PooledMarshaller marshaller = this.pool.borrow()) {
+			marshaller.marshal(element(message), target);
+		} catch (JAXBException e) {
+			throw new TransportException("Failed to marshal message", e);
+		}
+	}
+
+	/**
+	 * Marshal the message to the specified writer
+	 * 
+	 * @param message
+	 *            the message
+	 * @param writer
+	 *            the writer, which is not flushed or closed
+	 * @throws TransportException
+	 *             if marshalling fails
+	 */
+	public void marshal(T message, XMLStreamWriter writer) throws TransportException {
+		try (PooledMarshaller marshaller = this.pool.borrow()) {
+			marshaller.marshal(element(message), writer);
+		} catch (JAXBException e) {
+			throw new TransportException("Failed to marshal message", e);
+		}
+	}
+
+	/**
+	 * Get the element to marshal, messages of a class without
+	 * {@link XmlRootElement} are wrapped, as JAXB cannot marshal them
+	 * otherwise. {@link #unmarshal(InputStream)} unwraps them by their
+	 * declared type.
+	 * 
+	 * @param message
+	 *            the message
+	 * @return the message or its wrapping element
+	 */
+	private Object element(T message) {
+		return this.name == null ? message : new JAXBElement<T>(this.name, this.clazz, message);
+	}
+
+	/**
+	 * Marshal the message element by element straight into the specified
+	 * stream, e.g. a request body with chunked transfer encoding or a socket
+	 * output stream. Only the small buffer of the writer is held in memory,
+	 * regardless of the size of the message.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param target
+	 *            the stream to write the UTF-8 encoded document to, which is
+	 *            flushed but not closed
+	 * @throws TransportException
+	 *             if marshalling or writing fails
+	 */
+	public void stream(T message, OutputStream target) throws TransportException {
+		XMLStreamWriter writer;
+		try {
+			writer = factory.createXMLStreamWriter(target, "UTF-8");
+		} catch (XMLStreamException e) {
+			throw new TransportException("Failed to create XML writer", e);
+		}
+		try {
+			marshal(message, writer);
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new TransportException("Failed to write message", e);
+		} finally {
+			try {
+				writer.close();
+			} catch (XMLStreamException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public T unmarshal(InputStream source) throws TransportException {
+		Unmarshaller unmarshaller = this.pool.borrowUnmarshaller();
+		T message;
+		try {
+			message = unmarshaller.unmarshal(new StreamSource(source), this.clazz).getValue();
+		} catch (JAXBException e) {
+			// failed unmarshallers are not returned to the pool
+			throw new TransportException("Failed to unmarshal message", e);
+		}
+		this.pool.release(unmarshaller);
+		return message;
+	}
+}
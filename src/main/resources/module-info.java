@@ -1,6 +1,9 @@
 module havis.transport.api {
     requires transitive java.xml;
     requires transitive jaxb.api;
+    requires transitive java.management;
+    requires transitive java.scripting;
+    requires transitive java.sql;
 
     exports havis.transport;
 
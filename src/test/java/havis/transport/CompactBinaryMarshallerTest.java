@@ -0,0 +1,443 @@
+package havis.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+public class CompactBinaryMarshallerTest {
+
+	public enum Color {
+		RED, GREEN, BLUE
+	}
+
+	public static class Primitives {
+		boolean z;
+		byte b;
+		short s;
+		char c;
+		int i;
+		long l;
+		float f;
+		double d;
+	}
+
+	public static class Wrappers {
+		Boolean z;
+		Byte b;
+		Short s;
+		Character c;
+		Integer i;
+		Long l;
+		Float f;
+		Double d;
+	}
+
+	public static class Values {
+		String string;
+		byte[] bytes;
+		Color color;
+		Date date;
+		BigInteger integer;
+		BigDecimal decimal;
+		XMLGregorianCalendar calendar;
+	}
+
+	public static class Item {
+		String name;
+		Item next;
+	}
+
+	public static class Containers {
+		int[] ints;
+		String[] strings;
+		Item[] items;
+		List<String> list;
+		Set<Integer> set;
+		Map<String, Long> map;
+		TreeMap<String, Color> sorted;
+		List<List<Item>> nested;
+		Map<String, List<Integer>> multi;
+	}
+
+	public static class Other {
+		String string;
+	}
+
+	public static class Ints {
+		int[] values;
+	}
+
+	public static class Integers {
+		Integer[] values;
+	}
+
+	private static <T> byte[] marshal(CompactBinaryMarshaller<T> marshaller, T message) throws TransportException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		marshaller.marshal(message, stream);
+		return stream.toByteArray();
+	}
+
+	private static <T> T roundTrip(Class<T> clazz, T message) throws ValidationException, TransportException {
+		CompactBinaryMarshaller<T> marshaller = new CompactBinaryMarshaller<>(clazz);
+		return marshaller.unmarshal(new ByteArrayInputStream(marshal(marshaller, message)));
+	}
+
+	private static void assertRejected(CompactBinaryMarshaller<?> marshaller, byte[] data) {
+		try {
+			marshaller.unmarshal(new ByteArrayInputStream(data));
+			fail("TransportException expected");
+		} catch (TransportException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void primitives() throws Exception {
+		Primitives message = new Primitives();
+		message.z = true;
+		message.b = Byte.MIN_VALUE;
+		message.s = Short.MAX_VALUE;
+		message.c = '\u20ac';
+		message.i = -123456;
+		message.l = Long.MIN_VALUE;
+		message.f = 1.5f;
+		message.d = -Double.MAX_VALUE;
+
+		Primitives result = roundTrip(Primitives.class, message);
+		assertEquals(message.z, result.z);
+		assertEquals(message.b, result.b);
+		assertEquals(message.s, result.s);
+		assertEquals(message.c, result.c);
+		assertEquals(message.i, result.i);
+		assertEquals(message.l, result.l);
+		assertEquals(message.f, result.f, 0);
+		assertEquals(message.d, result.d, 0);
+	}
+
+	@Test
+	public void chars() throws Exception {
+		for (char c : new char[] { 0, 'a', '\u00ff', '\u20ac', '\ud83d', Character.MAX_VALUE }) {
+			Primitives message = new Primitives();
+			message.c = c;
+			assertEquals(c, roundTrip(Primitives.class, message).c);
+			Wrappers wrappers = new Wrappers();
+			wrappers.c = Character.valueOf(c);
+			assertEquals(wrappers.c, roundTrip(Wrappers.class, wrappers).c);
+		}
+	}
+
+	@Test
+	public void wrappers() throws Exception {
+		Wrappers message = new Wrappers();
+		message.z = Boolean.FALSE;
+		message.b = Byte.valueOf((byte) 7);
+		message.s = Short.valueOf((short) -7);
+		message.c = Character.valueOf('x');
+		message.i = Integer.valueOf(Integer.MAX_VALUE);
+		message.l = Long.valueOf(42);
+		message.f = Float.valueOf(Float.NaN);
+		message.d = Double.valueOf(0.1);
+
+		Wrappers result = roundTrip(Wrappers.class, message);
+		assertEquals(message.z, result.z);
+		assertEquals(message.b, result.b);
+		assertEquals(message.s, result.s);
+		assertEquals(message.c, result.c);
+		assertEquals(message.i, result.i);
+		assertEquals(message.l, result.l);
+		assertEquals(message.f, result.f);
+		assertEquals(message.d, result.d);
+	}
+
+	@Test
+	public void values() throws Exception {
+		Values message = new Values();
+		message.string = "Gr\u00fc\u00dfe \ud83d\ude00";
+		message.bytes = new byte[] { 0, 1, -1, 127, -128 };
+		message.color = Color.BLUE;
+		message.date = new Date(1234567890123L);
+		message.integer = new BigInteger("-123456789012345678901234567890");
+		message.decimal = new BigDecimal("3.14159265358979323846");
+		message.calendar = DatatypeFactory.newInstance().newXMLGregorianCalendar("2016-01-02T03:04:05.678+01:00");
+
+		Values result = roundTrip(Values.class, message);
+		assertEquals(message.string, result.string);
+		assertArrayEquals(message.bytes, result.bytes);
+		assertEquals(message.color, result.color);
+		assertEquals(message.date, result.date);
+		assertEquals(message.integer, result.integer);
+		assertEquals(message.decimal, result.decimal);
+		assertEquals(message.calendar, result.calendar);
+	}
+
+	@Test
+	public void nulls() throws Exception {
+		Wrappers wrappers = roundTrip(Wrappers.class, new Wrappers());
+		assertNull(wrappers.z);
+		assertNull(wrappers.b);
+		assertNull(wrappers.s);
+		assertNull(wrappers.c);
+		assertNull(wrappers.i);
+		assertNull(wrappers.l);
+		assertNull(wrappers.f);
+		assertNull(wrappers.d);
+
+		Values values = roundTrip(Values.class, new Values());
+		assertNull(values.string);
+		assertNull(values.bytes);
+		assertNull(values.color);
+		assertNull(values.date);
+		assertNull(values.integer);
+		assertNull(values.decimal);
+		assertNull(values.calendar);
+
+		Containers containers = roundTrip(Containers.class, new Containers());
+		assertNull(containers.ints);
+		assertNull(containers.strings);
+		assertNull(containers.items);
+		assertNull(containers.list);
+		assertNull(containers.set);
+		assertNull(containers.map);
+		assertNull(containers.sorted);
+		assertNull(containers.nested);
+		assertNull(containers.multi);
+
+		assertNull(roundTrip(Item.class, null));
+	}
+
+	@Test
+	public void primitiveElementsHaveNoNullMarker() throws Exception {
+		Ints ints = new Ints();
+		ints.values = new int[100];
+		Integers integers = new Integers();
+		integers.values = new Integer[100];
+		Arrays.fill(integers.values, Integer.valueOf(0));
+
+		byte[] primitive = marshal(new CompactBinaryMarshaller<>(Ints.class), ints);
+		byte[] boxed = marshal(new CompactBinaryMarshaller<>(Integers.class), integers);
+		assertEquals(boxed.length - 100, primitive.length);
+		assertArrayEquals(ints.values, roundTrip(Ints.class, ints).values);
+		assertArrayEquals(integers.values, roundTrip(Integers.class, integers).values);
+	}
+
+	@Test
+	public void nullElements() throws Exception {
+		Containers message = new Containers();
+		message.strings = new String[] { "a", null, "c" };
+		message.items = new Item[] { null };
+		message.list = Arrays.asList(null, "b");
+		message.map = new LinkedHashMap<>();
+		message.map.put("a", null);
+		message.map.put(null, Long.valueOf(1));
+
+		Containers result = roundTrip(Containers.class, message);
+		assertArrayEquals(message.strings, result.strings);
+		assertEquals(1, result.items.length);
+		assertNull(result.items[0]);
+		assertEquals(message.list, result.list);
+		assertEquals(message.map, result.map);
+	}
+
+	@Test
+	public void emptyContainers() throws Exception {
+		Containers message = new Containers();
+		message.ints = new int[0];
+		message.strings = new String[0];
+		message.items = new Item[0];
+		message.list = new ArrayList<>();
+		message.set = new HashSet<>();
+		message.map = new LinkedHashMap<>();
+		message.sorted = new TreeMap<>();
+		message.nested = new ArrayList<>();
+		message.multi = new LinkedHashMap<>();
+
+		Containers result = roundTrip(Containers.class, message);
+		assertEquals(0, result.ints.length);
+		assertEquals(0, result.strings.length);
+		assertEquals(0, result.items.length);
+		assertTrue(result.list.isEmpty());
+		assertTrue(result.set.isEmpty());
+		assertTrue(result.map.isEmpty());
+		assertTrue(result.sorted.isEmpty());
+		assertTrue(result.nested.isEmpty());
+		assertTrue(result.multi.isEmpty());
+	}
+
+	@Test
+	public void containers() throws Exception {
+		Containers message = new Containers();
+		message.ints = new int[1000];
+		for (int i = 0; i < message.ints.length; i++)
+			message.ints[i] = i * i;
+		message.strings = new String[] { "a", "", "c" };
+		Item item = new Item();
+		item.name = "item";
+		message.items = new Item[] { item };
+		message.list = Arrays.asList("x", "y", "z");
+		message.set = new HashSet<>(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)));
+		message.map = new LinkedHashMap<>();
+		message.map.put("one", Long.valueOf(1));
+		message.map.put("two", Long.valueOf(2));
+		message.sorted = new TreeMap<>();
+		message.sorted.put("b", Color.GREEN);
+		message.sorted.put("a", Color.RED);
+		message.nested = new ArrayList<>();
+		message.nested.add(Collections.<Item> emptyList());
+		message.nested.add(Arrays.asList(item, null, item));
+		message.multi = new LinkedHashMap<>();
+		message.multi.put("empty", Collections.<Integer> emptyList());
+		message.multi.put("full", Arrays.asList(Integer.valueOf(-1), null));
+
+		Containers result = roundTrip(Containers.class, message);
+		assertArrayEquals(message.ints, result.ints);
+		assertArrayEquals(message.strings, result.strings);
+		assertEquals("item", result.items[0].name);
+		assertEquals(message.list, result.list);
+		assertEquals(message.set, result.set);
+		assertEquals(message.map, result.map);
+		assertEquals(new ArrayList<>(message.map.keySet()), new ArrayList<>(result.map.keySet()));
+		assertEquals(message.sorted, result.sorted);
+		assertEquals(TreeMap.class, result.sorted.getClass());
+		assertEquals(2, result.nested.size());
+		assertTrue(result.nested.get(0).isEmpty());
+		assertEquals(3, result.nested.get(1).size());
+		assertEquals("item", result.nested.get(1).get(0).name);
+		assertNull(result.nested.get(1).get(1));
+		assertEquals(message.multi, result.multi);
+	}
+
+	@Test
+	public void recursive() throws Exception {
+		Item message = new Item();
+		message.name = "first";
+		message.next = new Item();
+		message.next.name = "second";
+
+		Item result = roundTrip(Item.class, message);
+		assertEquals("first", result.name);
+		assertEquals("second", result.next.name);
+		assertNull(result.next.next);
+	}
+
+	@Test
+	public void enums() throws Exception {
+		for (Color color : Color.values()) {
+			Values message = new Values();
+			message.color = color;
+			assertEquals(color, roundTrip(Values.class, message).color);
+		}
+	}
+
+	@Test
+	public void invalidEnumOrdinal() throws Exception {
+		CompactBinaryMarshaller<Values> marshaller = new CompactBinaryMarshaller<>(Values.class);
+		Values message = new Values();
+		message.color = Color.BLUE;
+		byte[] data = marshal(marshaller, message);
+		// only field set, encoded as present marker and ordinal + 1
+		for (int i = data.length - 1; i >= 0; i--)
+			if (data[i] == Color.BLUE.ordinal() + 1) {
+				data[i] = 10;
+				break;
+			}
+		assertRejected(marshaller, data);
+	}
+
+	@Test
+	public void fingerprintMismatch() throws Exception {
+		Other message = new Other();
+		message.string = "other";
+		byte[] data = marshal(new CompactBinaryMarshaller<>(Other.class), message);
+		assertRejected(new CompactBinaryMarshaller<>(Item.class), data);
+
+		CompactBinaryMarshaller<Other> marshaller = new CompactBinaryMarshaller<>(Other.class);
+		data[0] ^= 1;
+		assertRejected(marshaller, data);
+	}
+
+	@Test
+	public void truncated() throws Exception {
+		CompactBinaryMarshaller<Containers> marshaller = new CompactBinaryMarshaller<>(Containers.class);
+		Containers message = new Containers();
+		message.list = Arrays.asList("a", "b", "c");
+		message.ints = new int[] { 1, 2, 3 };
+		byte[] data = marshal(marshaller, message);
+		for (int length = 0; length < data.length; length++)
+			assertRejected(marshaller, Arrays.copyOf(data, length));
+	}
+
+	@Test
+	public void oversized() throws Exception {
+		CompactBinaryMarshaller<Values> marshaller = new CompactBinaryMarshaller<>(Values.class, 1024);
+		assertEquals(1024, marshaller.getMaxMessageSize());
+		Values message = new Values();
+		message.bytes = new byte[2048];
+		byte[] data = marshal(marshaller, message);
+		assertRejected(marshaller, data);
+		assertArrayEquals(message.bytes, new CompactBinaryMarshaller<>(Values.class).unmarshal(new ByteArrayInputStream(data)).bytes);
+	}
+
+	@Test
+	public void oversizedLength() throws Exception {
+		for (Class<?> clazz : new Class<?>[] { Values.class, Containers.class }) {
+			CompactBinaryMarshaller<?> marshaller = new CompactBinaryMarshaller<>(clazz);
+			byte[] fingerprint = Arrays.copyOf(marshal(clazz, marshaller), 4);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			data.write(fingerprint);
+			// object present, first field present, length near Integer.MAX_VALUE
+			data.write(new byte[] { 1, 1, (byte) 0xf0, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+			assertRejected(marshaller, data.toByteArray());
+		}
+	}
+
+	@Test
+	public void negativeLength() throws Exception {
+		CompactBinaryMarshaller<Values> marshaller = new CompactBinaryMarshaller<>(Values.class);
+		byte[] fingerprint = Arrays.copyOf(marshal(marshaller, new Values()), 4);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(fingerprint);
+		// object present, bytes present, length with all 64 bits set
+		data.write(new byte[] { 1, 1 });
+		for (int i = 0; i < 9; i++)
+			data.write(0xff);
+		data.write(0x01);
+		assertRejected(marshaller, data.toByteArray());
+	}
+
+	@Test(expected = ValidationException.class)
+	public void invalidMaxMessageSize() throws Exception {
+		new CompactBinaryMarshaller<>(Values.class, 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> byte[] marshal(Class<T> clazz, CompactBinaryMarshaller<?> marshaller) throws IOException, TransportException {
+		try {
+			return marshal((CompactBinaryMarshaller<T>) marshaller, clazz.getDeclaredConstructor().newInstance());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException(e);
+		}
+	}
+}
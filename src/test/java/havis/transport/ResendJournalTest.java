@@ -0,0 +1,170 @@
+package havis.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResendJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] record(int i) {
+		return ("record " + i).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private String[] segments(File directory) {
+		return directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".seg");
+			}
+		});
+	}
+
+	@Test
+	public void appendAndRemove() throws Exception {
+		try (ResendJournal journal = new ResendJournal(this.folder.getRoot(), 1024, 10)) {
+			assertTrue(journal.isEmpty());
+			assertNull(journal.peek());
+			for (int i = 0; i < 3; i++)
+				assertTrue(journal.append(record(i)));
+			assertEquals(3, journal.size());
+			for (int i = 0; i < 3; i++) {
+				assertArrayEquals(record(i), journal.peek());
+				assertArrayEquals(record(i), journal.peek());
+				journal.remove();
+			}
+			assertTrue(journal.isEmpty());
+		}
+	}
+
+	@Test
+	public void capacity() throws Exception {
+		try (ResendJournal journal = new ResendJournal(this.folder.getRoot(), 1024, 2)) {
+			assertTrue(journal.append(record(0)));
+			assertTrue(journal.append(record(1)));
+			assertFalse(journal.append(record(2)));
+			assertEquals(2, journal.size());
+		}
+	}
+
+	@Test
+	public void rollover() throws Exception {
+		File directory = this.folder.getRoot();
+		// each record is 8 bytes of header and 8 bytes of data, two fit into a segment
+		try (ResendJournal journal = new ResendJournal(directory, 40, 100)) {
+			for (int i = 0; i < 10; i++)
+				assertTrue(journal.append(record(i)));
+			assertEquals(5, segments(directory).length);
+			for (int i = 0; i < 10; i++) {
+				assertArrayEquals(record(i), journal.peek());
+				journal.remove();
+			}
+			// consumed segments are deleted, the one written last remains
+			assertEquals(1, segments(directory).length);
+			assertTrue(journal.append(record(10)));
+			assertArrayEquals(record(10), journal.peek());
+		}
+	}
+
+	@Test
+	public void recovery() throws Exception {
+		File directory = this.folder.getRoot();
+		// not closed, as if the process crashed
+		ResendJournal crashed = new ResendJournal(directory, 40, 100);
+		for (int i = 0; i < 5; i++)
+			crashed.append(record(i));
+		crashed.peek();
+		crashed.remove();
+		crashed.peek();
+		crashed.remove();
+		crashed.peek();
+		crashed.remove();
+
+		try (ResendJournal journal = new ResendJournal(directory, 40, 100)) {
+			assertEquals(2, journal.size());
+			assertArrayEquals(record(3), journal.peek());
+			journal.remove();
+			assertArrayEquals(record(4), journal.peek());
+			journal.remove();
+			assertTrue(journal.isEmpty());
+		}
+	}
+
+	@Test
+	public void recoveryIgnoresIncompleteRecord() throws Exception {
+		File directory = this.folder.getRoot();
+		ResendJournal crashed = new ResendJournal(directory, 1024, 10);
+		crashed.append(record(0));
+		crashed.append(record(1));
+		crashed.close();
+
+		// corrupt the data of the second record, as if it was not written completely
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, "0000000000000000.seg"), "rw")) {
+			file.seek(8 + record(0).length + 8);
+			file.write('x');
+		}
+
+		try (ResendJournal journal = new ResendJournal(directory, 1024, 10)) {
+			assertEquals(1, journal.size());
+			assertArrayEquals(record(0), journal.peek());
+			journal.remove();
+			assertTrue(journal.isEmpty());
+			// the incomplete record is overwritten
+			assertTrue(journal.append(record(2)));
+			assertArrayEquals(record(2), journal.peek());
+		}
+	}
+
+	@Test
+	public void ignoresForeignFiles() throws Exception {
+		File directory = this.folder.getRoot();
+		assertTrue(new File(directory, "backup.seg").createNewFile());
+		assertTrue(new File(directory, "0000000000000000.seg.tmp").createNewFile());
+		try (ResendJournal journal = new ResendJournal(directory, 1024, 10)) {
+			assertTrue(journal.append(record(0)));
+		}
+		try (ResendJournal journal = new ResendJournal(directory, 1024, 10)) {
+			assertArrayEquals(record(0), journal.peek());
+		}
+	}
+
+	@Test
+	public void closed() throws IOException, TransportException {
+		ResendJournal journal = new ResendJournal(this.folder.getRoot(), 1024, 10);
+		journal.append(record(0));
+		journal.close();
+		try {
+			journal.append(record(1));
+			fail();
+		} catch (TransportException e) {
+			// expected
+		}
+		try {
+			journal.peek();
+			fail();
+		} catch (TransportException e) {
+			// expected
+		}
+		try {
+			journal.remove();
+			fail();
+		} catch (TransportException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package havis.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collections;
+
+import javax.script.ScriptEngineManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptCacheTest {
+
+	private ScriptCache cache;
+
+	@Before
+	public void setup() {
+		assumeTrue(new ScriptEngineManager().getEngineByName(Messenger.JS_TRANSFORMER) != null);
+		this.cache = new ScriptCache(Messenger.JS_TRANSFORMER);
+	}
+
+	@Test
+	public void globalsAreNotShared() throws Exception {
+		String script = "var result = typeof counter === 'undefined' ? 'fresh' : 'leaked'; counter = 1; result";
+		assertEquals("fresh", this.cache.eval(script, null));
+		assertEquals("fresh", this.cache.eval(script, null));
+	}
+
+	@Test
+	public void globalsAreNotSharedBetweenScripts() throws Exception {
+		this.cache.eval("shared = object", Collections.singletonMap("object", "first"));
+		assertEquals("undefined", this.cache.eval("typeof shared", null));
+	}
+
+	@Test
+	public void variables() throws Exception {
+		assertEquals("a", this.cache.eval("object", Collections.singletonMap("object", "a")));
+		assertEquals("undefined", this.cache.eval("typeof object", null));
+	}
+}